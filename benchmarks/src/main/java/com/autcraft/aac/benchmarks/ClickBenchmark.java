@@ -0,0 +1,81 @@
+package com.autcraft.aac.benchmarks;
+
+import be.seeseemelk.mockbukkit.ServerMock;
+import be.seeseemelk.mockbukkit.entity.PlayerMock;
+import com.autcraft.aac.AAC;
+import com.autcraft.aac.events.Click;
+import com.autcraft.aac.objects.InventoryGUI;
+import org.bukkit.event.inventory.ClickType;
+import org.bukkit.event.inventory.InventoryAction;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.InventoryView;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The full Click.inventoryClick dispatch: routing, slot lookup and the resulting action
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ClickBenchmark {
+    private Click click;
+    private InventoryView panelView;
+    private InventoryView chestView;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ServerMock server = Fixtures.mockServer();
+        AAC plugin = Fixtures.loadPlugin();
+
+        // A long cooldown so that every phrase click after the first one is answered with the cooldown message
+        plugin.getConfig().set("settings.cooldown_in_seconds", 3600);
+        plugin.getRateLimiter().configure(plugin.getConfig());
+        Fixtures.panel(plugin, 100);
+
+        click = new Click(plugin);
+        InventoryGUI inventoryGUI = plugin.getInventoryGUI();
+
+        PlayerMock player = server.addPlayer();
+        panelView = player.openInventory(inventoryGUI.getGUI(player, 1));
+
+        PlayerMock other = server.addPlayer();
+        chestView = other.openInventory(server.createInventory(null, 27, "Chest"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fixtures.unmock();
+    }
+
+    @Benchmark
+    public InventoryClickEvent phraseInCooldown() {
+        InventoryClickEvent e = new InventoryClickEvent(panelView, InventoryType.SlotType.CONTAINER, 0, ClickType.LEFT, InventoryAction.PICKUP_ALL);
+        click.inventoryClick(e);
+        return e;
+    }
+
+    @Benchmark
+    public InventoryClickEvent nextPage() {
+        InventoryClickEvent e = new InventoryClickEvent(panelView, InventoryType.SlotType.CONTAINER, InventoryGUI.NEXT_SLOT, ClickType.LEFT, InventoryAction.PICKUP_ALL);
+        click.inventoryClick(e);
+        return e;
+    }
+
+    /**
+     * A click in some other plugin's or a vanilla inventory, which AAC has to ignore as quickly as possible
+     *
+     * @return
+     */
+    @Benchmark
+    public InventoryClickEvent otherInventory() {
+        InventoryClickEvent e = new InventoryClickEvent(chestView, InventoryType.SlotType.CONTAINER, 0, ClickType.LEFT, InventoryAction.PICKUP_ALL);
+        click.inventoryClick(e);
+        return e;
+    }
+}
@@ -0,0 +1,60 @@
+package com.autcraft.aac.benchmarks;
+
+import com.autcraft.aac.ratelimit.RateLimiter;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checking and starting a player's cooldown
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CooldownBenchmark {
+    private RateLimiter longCooldown;
+    private RateLimiter shortCooldown;
+    private UUID inCooldown;
+    private long nextPlayer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        longCooldown = limiter(3600);
+        inCooldown = UUID.randomUUID();
+        longCooldown.tryAcquire(inCooldown, "slot01");
+
+        // Short enough that buckets are full again, and reclaimed, long before the benchmark ends
+        shortCooldown = limiter(0.001);
+    }
+
+    /**
+     * A player who is still in their cooldown tries again
+     *
+     * @return
+     */
+    @Benchmark
+    public long check() {
+        return longCooldown.tryAcquire(inCooldown, "slot01");
+    }
+
+    /**
+     * A new player starts a cooldown, including the periodic reclaiming of expired ones
+     *
+     * @return
+     */
+    @Benchmark
+    public long insert() {
+        return shortCooldown.tryAcquire(new UUID(0, nextPlayer++), "slot01");
+    }
+
+    private static RateLimiter limiter(double seconds) {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("settings.cooldown_in_seconds", seconds);
+        return new RateLimiter(config);
+    }
+}
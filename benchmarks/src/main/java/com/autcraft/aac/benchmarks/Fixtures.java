@@ -0,0 +1,59 @@
+package com.autcraft.aac.benchmarks;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import be.seeseemelk.mockbukkit.ServerMock;
+import com.autcraft.aac.AAC;
+import org.bukkit.configuration.file.FileConfiguration;
+
+/**
+ * Shared setup for the benchmarks: a mocked server with AAC loaded and a panel of a given size
+ */
+final class Fixtures {
+    /**
+     * Base64 texture as written in config.yml
+     */
+    static final String CONFIG_TEXTURE = "eyJ0ZXh0dXJlcyI6eyJTS0lOIjp7InVybCI6Imh0dHA6Ly90ZXh0dXJlcy5taW5lY3JhZnQubmV0L3RleHR1cmUvOGY2MjQzM2ExZmY1ZWNjOGY4ZDRlYjg1NGUwYmNmODUwZmU2ZjQyMzIxOGYyZGI0YzBiMDMzZWU1YTNlYTY1NCJ9fX0=";
+
+    /**
+     * Base64 texture as returned by Mojang's session server, which also carries the profile details
+     */
+    static final String MOJANG_TEXTURE = "ewogICJ0aW1lc3RhbXAiIDogMTcwMDAwMDAwMDAwMCwKICAicHJvZmlsZUlkIiA6ICI2MWRkYmE1MTM5NjE0MGU3ODQwNWFmNTRkMTg3ODA1MyIsCiAgInByb2ZpbGVOYW1lIiA6ICJEaW5uZXJib25lIiwKICAidGV4dHVyZXMiIDogewogICAgIlNLSU4iIDogewogICAgICAidXJsIiA6ICJodHRwOi8vdGV4dHVyZXMubWluZWNyYWZ0Lm5ldC90ZXh0dXJlLzhmNjI0MzNhMWZmNWVjYzhmOGQ0ZWI4NTRlMGJjZjg1MGZlNmY0MjMyMThmMmRiNGMwYjAzM2VlNWEzZWE2NTQiCiAgICB9CiAgfQp9";
+
+    private static final String[] ICONS = {"beacon", "barrier", "compass", "red_bed", "potato", "sugar", "lead", "cake", "diamond", "emerald"};
+
+    private Fixtures() {
+    }
+
+    static ServerMock mockServer() {
+        return MockBukkit.mock();
+    }
+
+    static AAC loadPlugin() {
+        return MockBukkit.load(AAC.class);
+    }
+
+    static void unmock() {
+        MockBukkit.unmock();
+    }
+
+    /**
+     * Replace the panel with the given number of phrases and wait for it to be compiled
+     *
+     * @param plugin
+     * @param phrases
+     */
+    static void panel(AAC plugin, int phrases) {
+        FileConfiguration config = plugin.getConfig();
+        config.set("panel", null);
+
+        for (int i = 0; i < phrases; i++) {
+            String path = String.format("panel.slot%05d", i);
+            config.set(path + ".icon", ICONS[i % ICONS.length]);
+            config.set(path + ".name", "Phrase " + i);
+            config.set(path + ".lore", "Says phrase number " + i);
+            config.set(path + ".output", "This is phrase number " + i);
+        }
+
+        plugin.getInventoryGUI().reload().join();
+    }
+}
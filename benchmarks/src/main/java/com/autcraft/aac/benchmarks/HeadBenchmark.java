@@ -0,0 +1,47 @@
+package com.autcraft.aac.benchmarks;
+
+import com.autcraft.aac.CreatePlayerHead;
+import net.kyori.adventure.text.Component;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building player heads from a texture. The skin URL is decoded and the profile created once per texture, after that heads share them
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HeadBenchmark {
+    private CreatePlayerHead createPlayerHead;
+    private Component name;
+    private List<Component> lore;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Fixtures.mockServer();
+        createPlayerHead = new CreatePlayerHead();
+        name = Component.text("Head");
+        lore = List.of(Component.text("A head"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fixtures.unmock();
+    }
+
+    @Benchmark
+    public ItemStack getSkullConfigTexture() {
+        return createPlayerHead.getSkull(Fixtures.CONFIG_TEXTURE, name, lore);
+    }
+
+    @Benchmark
+    public ItemStack getSkullMojangTexture() {
+        return createPlayerHead.getSkull(Fixtures.MOJANG_TEXTURE, name, lore);
+    }
+}
@@ -0,0 +1,74 @@
+package com.autcraft.aac.benchmarks;
+
+import com.autcraft.aac.AAC;
+import com.autcraft.aac.objects.PanelCompiler;
+import com.autcraft.aac.objects.PanelSnapshot;
+
+/**
+ * Heap kept by a compiled panel of 1,000, 10,000 and 50,000 phrases: as compiled, with only its entries described,
+ * after one page has been viewed, and with every page rendered, which is what the panel used to keep from the start.
+ *
+ * JMH measures time rather than memory, so this runs on its own:
+ * java -cp benchmarks/target/benchmarks.jar com.autcraft.aac.benchmarks.HeapFootprint
+ * The results are printed as a Markdown table, with the caveat below, ready to go into the readme.
+ *
+ * Items are MockBukkit's rather than the server's, so the numbers are for comparing layouts, not for predicting a server's heap.
+ */
+public final class HeapFootprint {
+    private static final int[] SIZES = {1000, 10000, 50000};
+
+    private HeapFootprint() {
+    }
+
+    public static void main(String[] args) {
+        Fixtures.mockServer();
+        AAC plugin = Fixtures.loadPlugin();
+
+        System.out.println("| Phrases | Described (KB) | One page viewed (KB) | Every page rendered (KB) |");
+        System.out.println("|--------:|---------------:|---------------------:|-------------------------:|");
+        for (int phrases : SIZES) {
+            Fixtures.panel(plugin, phrases);
+
+            // Room for every page, so the last column really holds all of them
+            plugin.getConfig().set("pages.cache_size", phrases);
+
+            long before = usedHeap();
+            PanelSnapshot panel = new PanelCompiler(plugin, plugin.getInventoryGUI(), plugin.getConfig(), false).compile(0);
+            long described = usedHeap() - before;
+
+            panel.getRoot().getPage(1);
+            long onePage = usedHeap() - before;
+
+            for (int page = 2; page <= panel.getPageCount(); page++) {
+                panel.getRoot().getPage(page);
+            }
+            long everyPage = usedHeap() - before;
+
+            System.out.printf("| %,d | %,d | %,d | %,d |%n", phrases, described / 1024, onePage / 1024, everyPage / 1024);
+
+            // Keep the panel reachable until everything about it has been measured
+            if (panel.getCachedPageCount() < 0) {
+                System.out.println(panel.getGeneration());
+            }
+        }
+
+        System.out.println();
+        System.out.println("Measured with MockBukkit's items on Java " + System.getProperty("java.version")
+                + ". Compare the columns with each other, a server's own items take a different amount of heap.");
+
+        Fixtures.unmock();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
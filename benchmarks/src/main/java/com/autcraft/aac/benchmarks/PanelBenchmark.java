@@ -0,0 +1,100 @@
+package com.autcraft.aac.benchmarks;
+
+import be.seeseemelk.mockbukkit.ServerMock;
+import be.seeseemelk.mockbukkit.entity.PlayerMock;
+import com.autcraft.aac.AAC;
+import com.autcraft.aac.objects.InventoryGUI;
+import com.autcraft.aac.objects.PanelCompiler;
+import com.autcraft.aac.objects.PanelSnapshot;
+import org.bukkit.inventory.Inventory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opening panel pages, searching and compiling the panel, for boards of different sizes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PanelBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int phrases;
+
+    private AAC plugin;
+    private InventoryGUI inventoryGUI;
+    private PlayerMock player;
+    private int lastPage;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ServerMock server = Fixtures.mockServer();
+        plugin = Fixtures.loadPlugin();
+        Fixtures.panel(plugin, phrases);
+
+        inventoryGUI = plugin.getInventoryGUI();
+        player = server.addPlayer();
+        lastPage = inventoryGUI.getPageCount();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fixtures.unmock();
+    }
+
+    @Benchmark
+    public Inventory getGUIFirstPage() {
+        return inventoryGUI.getGUI(player, 1);
+    }
+
+    @Benchmark
+    public Inventory getGUILastPage() {
+        return inventoryGUI.getGUI(player, lastPage);
+    }
+
+    /**
+     * A search matching one phrase, by a word prefix and an exact number
+     *
+     * @return
+     */
+    @Benchmark
+    public List<String> searchOnePhrase() {
+        return inventoryGUI.getSnapshot().getSearchIndex().search("phr " + (phrases - 1), InventoryGUI.PAGE_SIZE);
+    }
+
+    /**
+     * A search matching every phrase, as the first letter typed would
+     *
+     * @return
+     */
+    @Benchmark
+    public List<String> searchEveryPhrase() {
+        return inventoryGUI.getSnapshot().getSearchIndex().search("p", InventoryGUI.PAGE_SIZE);
+    }
+
+    /**
+     * Reading the panel from config and describing every entry. Pages are rendered later, as they are viewed.
+     *
+     * @return
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public PanelSnapshot compilePanel() {
+        return new PanelCompiler(plugin, inventoryGUI, plugin.getConfig(), false).compile(0);
+    }
+
+    /**
+     * Recompiling on top of the current panel when nothing in the config changed, as /aac reload usually does
+     *
+     * @return
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public PanelSnapshot recompileUnchangedPanel() {
+        return new PanelCompiler(plugin, inventoryGUI, plugin.getConfig(), false, inventoryGUI.getSnapshot()).compile(0);
+    }
+}
@@ -0,0 +1,368 @@
+package com.autcraft.aac.benchmarks;
+
+import com.autcraft.aac.AAC;
+import com.autcraft.aac.state.RedisStateStore;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Smoke test of the Redis state store against a small stand-in server in the same process, so it runs without a Redis server:
+ * queued writes are flushed as one pipeline, a dropped connection is reconnected, and messages reach every listener.
+ *
+ * java -cp benchmarks/target/benchmarks.jar com.autcraft.aac.benchmarks.StateStoreSmoke
+ * Exits with status 1 if a check fails.
+ */
+public final class StateStoreSmoke {
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private StateStoreSmoke() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Fixtures.mockServer();
+        AAC plugin = Fixtures.loadPlugin();
+
+        boolean passed;
+        try (FakeRedis redis = new FakeRedis()) {
+            RedisStateStore store = new RedisStateStore(plugin, "localhost", redis.getPort(), "", 0, 2000, "smoke:", 50);
+            try {
+                passed = pipelinedFlush(store, redis) & reconnect(store, redis) & publishSubscribe(store, redis);
+            } finally {
+                store.close();
+            }
+        } finally {
+            Fixtures.unmock();
+        }
+
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Writes queued between two flushes arrive together rather than one round trip each
+     */
+    private static boolean pipelinedFlush(RedisStateStore store, FakeRedis redis) throws Exception {
+        int writes = 100;
+        for (int i = 0; i < writes; i++) {
+            store.put("key" + i, bytes("value" + i), 0);
+        }
+        await(() -> redis.commands.get() >= writes);
+
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < writes; i++) {
+            keys.add("key" + i);
+        }
+        List<byte[]> values = store.getAll(keys);
+        boolean stored = true;
+        for (int i = 0; i < writes; i++) {
+            stored &= Arrays.equals(bytes("value" + i), values.get(i));
+        }
+
+        boolean claimed = store.putIfAbsent("claim", bytes("a"), 60000) && !store.putIfAbsent("claim", bytes("b"), 60000);
+
+        return check("pipelined flush", stored && claimed && redis.batches.get() < writes,
+                writes + " writes in " + redis.batches.get() + " batches");
+    }
+
+    /**
+     * After the server drops every connection, writes, reads and messages work again once the store has reconnected
+     */
+    private static boolean reconnect(RedisStateStore store, FakeRedis redis) throws Exception {
+        String channel = "reconnect";
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        store.subscribe(channel, message -> received.add(new String(message, StandardCharsets.UTF_8)));
+        await(() -> redis.subscribers(channel) > 0);
+
+        redis.dropConnections();
+
+        byte[] value = null;
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (value == null && System.currentTimeMillis() < deadline) {
+            store.put("after", bytes("reconnected"), 0);
+            try {
+                value = store.get("after");
+            } catch (IOException e) {
+                Thread.sleep(250);
+            }
+        }
+
+        await(() -> redis.subscribers(channel) > 0);
+        store.publish(channel, bytes("back"));
+        String message = received.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        return check("reconnect", Arrays.equals(bytes("reconnected"), value) && "back".equals(message),
+                "read " + (value == null ? "nothing" : new String(value, StandardCharsets.UTF_8)) + ", heard " + message);
+    }
+
+    /**
+     * A message reaches every listener on its channel, and only those
+     */
+    private static boolean publishSubscribe(RedisStateStore store, FakeRedis redis) throws Exception {
+        BlockingQueue<String> first = new LinkedBlockingQueue<>();
+        BlockingQueue<String> second = new LinkedBlockingQueue<>();
+        BlockingQueue<String> other = new LinkedBlockingQueue<>();
+        store.subscribe("panels", message -> first.add(new String(message, StandardCharsets.UTF_8)));
+        store.subscribe("panels", message -> second.add(new String(message, StandardCharsets.UTF_8)));
+        store.subscribe("other", message -> other.add(new String(message, StandardCharsets.UTF_8)));
+        await(() -> redis.subscribers("panels") > 0 && redis.subscribers("other") > 0);
+
+        store.publish("panels", bytes("hello"));
+        String heardFirst = first.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        String heardSecond = second.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        return check("publish and subscribe", "hello".equals(heardFirst) && "hello".equals(heardSecond) && other.isEmpty(),
+                "heard " + heardFirst + " and " + heardSecond + ", " + other.size() + " on the other channel");
+    }
+
+    private static boolean check(String name, boolean passed, String detail) {
+        System.out.println((passed ? "PASS " : "FAIL ") + name + ": " + detail);
+        return passed;
+    }
+
+    private static void await(Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.call()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new TimeoutException("Gave up waiting for the stand-in server");
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private static byte[] bytes(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Just enough of a Redis server for the store: GET, MGET, SET with NX and PX, PUBLISH and SUBSCRIBE.
+     * Counts the commands it gets and the batches they arrive in, a batch being whatever was sent before waiting for a reply.
+     */
+    private static final class FakeRedis implements Closeable {
+        private final ServerSocket server = new ServerSocket(0);
+        private final Map<String, byte[]> values = new ConcurrentHashMap<>();
+        private final Map<String, Long> expiries = new ConcurrentHashMap<>();
+        private final Map<String, Set<Client>> channels = new ConcurrentHashMap<>();
+        private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger commands = new AtomicInteger();
+        private final AtomicInteger batches = new AtomicInteger();
+
+        FakeRedis() throws IOException {
+            Thread acceptor = new Thread(this::accept, "Stand-in Redis");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        int subscribers(String channel) {
+            return channels.getOrDefault("smoke:" + channel, Set.of()).size();
+        }
+
+        void dropConnections() {
+            for (Client client : clients) {
+                client.close();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+            dropConnections();
+        }
+
+        private void accept() {
+            try {
+                while (true) {
+                    Client client = new Client(server.accept());
+                    clients.add(client);
+                    Thread thread = new Thread(client, "Stand-in Redis client");
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+            } catch (IOException ignored) {
+                // Closed
+            }
+        }
+
+        private final class Client implements Runnable {
+            private final Socket socket;
+            private final DataInputStream in;
+            private final OutputStream out;
+
+            Client(Socket socket) throws IOException {
+                this.socket = socket;
+                this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                this.out = new BufferedOutputStream(socket.getOutputStream());
+            }
+
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        List<byte[]> command = readCommand();
+                        commands.incrementAndGet();
+                        if (in.available() == 0) {
+                            batches.incrementAndGet();
+                        }
+                        synchronized (this) {
+                            execute(command);
+                            if (in.available() == 0) {
+                                out.flush();
+                            }
+                        }
+                    }
+                } catch (IOException ignored) {
+                    // Disconnected
+                } finally {
+                    close();
+                }
+            }
+
+            void close() {
+                clients.remove(this);
+                channels.values().forEach(subscribers -> subscribers.remove(this));
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+
+            private List<byte[]> readCommand() throws IOException {
+                if (in.read() != '*') {
+                    throw new EOFException();
+                }
+                int size = Integer.parseInt(readLine());
+                List<byte[]> arguments = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    in.read(); // $
+                    byte[] argument = new byte[Integer.parseInt(readLine())];
+                    in.readFully(argument);
+                    readLine();
+                    arguments.add(argument);
+                }
+                return arguments;
+            }
+
+            private String readLine() throws IOException {
+                StringBuilder line = new StringBuilder();
+                for (int b = in.read(); b != '\r'; b = in.read()) {
+                    if (b == -1) {
+                        throw new EOFException();
+                    }
+                    line.append((char) b);
+                }
+                in.read(); // \n
+                return line.toString();
+            }
+
+            private void execute(List<byte[]> command) throws IOException {
+                String name = string(command.get(0)).toUpperCase(Locale.ROOT);
+                switch (name) {
+                    case "GET" -> bulk(get(string(command.get(1))));
+                    case "MGET" -> {
+                        array(command.size() - 1);
+                        for (int i = 1; i < command.size(); i++) {
+                            bulk(get(string(command.get(i))));
+                        }
+                    }
+                    case "SET" -> set(command);
+                    case "PUBLISH" -> {
+                        Set<Client> subscribers = channels.getOrDefault(string(command.get(1)), Set.of());
+                        for (Client subscriber : subscribers) {
+                            subscriber.message(command.get(1), command.get(2));
+                        }
+                        line(":" + subscribers.size());
+                    }
+                    case "SUBSCRIBE" -> {
+                        for (int i = 1; i < command.size(); i++) {
+                            channels.computeIfAbsent(string(command.get(i)), c -> ConcurrentHashMap.newKeySet()).add(this);
+                            array(3);
+                            bulk("subscribe".getBytes(StandardCharsets.UTF_8));
+                            bulk(command.get(i));
+                            line(":" + i);
+                        }
+                    }
+                    case "AUTH", "SELECT" -> line("+OK");
+                    default -> line("-ERR unknown command '" + name + "'");
+                }
+            }
+
+            private void set(List<byte[]> command) throws IOException {
+                String key = string(command.get(1));
+                boolean ifAbsent = false;
+                long ttl = 0;
+                for (int i = 3; i < command.size(); i++) {
+                    String option = string(command.get(i)).toUpperCase(Locale.ROOT);
+                    if (option.equals("NX")) {
+                        ifAbsent = true;
+                    } else if (option.equals("PX")) {
+                        ttl = Long.parseLong(string(command.get(++i)));
+                    }
+                }
+
+                synchronized (values) {
+                    if (ifAbsent && get(key) != null) {
+                        bulk(null);
+                        return;
+                    }
+                    values.put(key, command.get(2));
+                    if (ttl > 0) {
+                        expiries.put(key, System.currentTimeMillis() + ttl);
+                    } else {
+                        expiries.remove(key);
+                    }
+                }
+                line("+OK");
+            }
+
+            private byte[] get(String key) {
+                Long expiresAt = expiries.get(key);
+                if (expiresAt != null && expiresAt < System.currentTimeMillis()) {
+                    values.remove(key);
+                    expiries.remove(key);
+                }
+                return values.get(key);
+            }
+
+            private synchronized void message(byte[] channel, byte[] payload) throws IOException {
+                array(3);
+                bulk("message".getBytes(StandardCharsets.UTF_8));
+                bulk(channel);
+                bulk(payload);
+                out.flush();
+            }
+
+            private void array(int size) throws IOException {
+                line("*" + size);
+            }
+
+            private void bulk(byte[] value) throws IOException {
+                if (value == null) {
+                    line("$-1");
+                    return;
+                }
+                line("$" + value.length);
+                out.write(value);
+                out.write('\r');
+                out.write('\n');
+            }
+
+            private void line(String line) throws IOException {
+                out.write((line + "\r\n").getBytes(StandardCharsets.UTF_8));
+            }
+
+            private String string(byte[] bytes) {
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.autcraft.aac.benchmarks;
+
+import com.autcraft.aac.objects.InventoryGUI;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import net.kyori.adventure.text.Component;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detecting the AAC tool in a player's hand, which runs on every interact event on the server
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ToolBenchmark {
+    private InventoryGUI inventoryGUI;
+    private ItemStack tool;
+    private ItemStack otherItem;
+    private ItemStack sameMaterial;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Fixtures.mockServer();
+        inventoryGUI = Fixtures.loadPlugin().getInventoryGUI();
+
+        tool = inventoryGUI.getTool();
+        otherItem = new ItemStack(Material.DIAMOND_SWORD, 1);
+
+        // Same material as the tool, with a name but without the AAC tag
+        sameMaterial = new ItemStack(tool.getType(), 1);
+        ItemMeta meta = sameMaterial.getItemMeta();
+        meta.displayName(Component.text("Not the tool"));
+        sameMaterial.setItemMeta(meta);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fixtures.unmock();
+    }
+
+    @Benchmark
+    public boolean isItemPanelToolMatch() {
+        return inventoryGUI.isItemPanelTool(tool);
+    }
+
+    @Benchmark
+    public boolean isItemPanelToolOtherMaterial() {
+        return inventoryGUI.isItemPanelTool(otherItem);
+    }
+
+    @Benchmark
+    public boolean isItemPanelToolSameMaterial() {
+        return inventoryGUI.isItemPanelTool(sameMaterial);
+    }
+}
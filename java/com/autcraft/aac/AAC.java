@@ -1,45 +1,177 @@
 package com.autcraft.aac;
 
+import com.autcraft.aac.audit.AuditLog;
+import com.autcraft.aac.audit.AuditRecord;
 import com.autcraft.aac.commands.MainCommand;
+import com.autcraft.aac.config.ConfigLoader;
+import com.autcraft.aac.config.ConfigWatcher;
 import com.autcraft.aac.events.Click;
+import com.autcraft.aac.events.Search;
+import com.autcraft.aac.events.Session;
+import com.autcraft.aac.favourites.Favourites;
+import com.autcraft.aac.metrics.Metrics;
 import com.autcraft.aac.objects.InventoryGUI;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.autcraft.aac.objects.PanelSnapshot;
+import com.autcraft.aac.profiles.CircuitBreaker;
+import com.autcraft.aac.profiles.LookupCache;
+import com.autcraft.aac.profiles.MojangProfileResolver;
+import com.autcraft.aac.profiles.ProfileCache;
+import com.autcraft.aac.profiles.RequestBudget;
+import com.autcraft.aac.profiles.ProfileResolver;
+import com.autcraft.aac.ratelimit.RateLimiter;
+import com.autcraft.aac.ratelimit.SharedCooldowns;
+import com.autcraft.aac.scheduler.TaskScheduler;
+import com.autcraft.aac.state.MemoryStateStore;
+import com.autcraft.aac.state.RedisStateStore;
+import com.autcraft.aac.state.StateStore;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.TextColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 public final class AAC extends JavaPlugin {
-    private Map<String, String> stringMap = new HashMap<>();
     private InventoryGUI inventoryGUI;
-    private Cache<UUID, Long> cooldown;
+    private ProfileResolver profileResolver;
+    private ProfileCache profileCache;
+    private LookupCache<String, String> profileLookupCache;
+    private ExecutorService headLookups;
+    private RateLimiter rateLimiter;
+    private StateStore stateStore;
+    private SharedCooldowns sharedCooldowns;
+    private final Metrics metrics = new Metrics();
+    private final TaskScheduler taskScheduler = new TaskScheduler(this);
+    private volatile FileConfiguration config;
+    private ConfigLoader configLoader;
+    private ConfigWatcher configWatcher;
+    private AuditLog auditLog;
+    private Favourites favourites;
 
     @Override
     public void onEnable() {
         // Plugin startup logic
         saveDefaultConfig();
+        if( !new File(getDataFolder(), "locales").exists() )
+            saveResource("locales/es.yml", false);
+        configLoader = new ConfigLoader(new File(getDataFolder(), "config.yml"), super.getConfig().getDefaults());
 
-        // Set cooldown timer based on config setting in config.yml
-        int cooldown_timer = getConfig().getInt("settings.cooldown_in_seconds",5);
-        cooldown = CacheBuilder.newBuilder().expireAfterWrite(cooldown_timer, TimeUnit.SECONDS).build();
+        // Set cooldown timer and rate limits based on config settings in config.yml
+        rateLimiter = new RateLimiter(getConfig());
 
-        // Initialize our Inventory GUI
-        inventoryGUI = new InventoryGUI(this, "AAC");
+        // Share cooldowns and the compiled panel with the other servers behind the proxy, if set up
+        if (getConfig().getString("state.type", "memory").equalsIgnoreCase("redis")) {
+            stateStore = new RedisStateStore(this,
+                    getConfig().getString("state.redis.host", "localhost"),
+                    getConfig().getInt("state.redis.port", 6379),
+                    getConfig().getString("state.redis.password", ""),
+                    getConfig().getInt("state.redis.database", 0),
+                    getConfig().getInt("state.redis.timeout_ms", 2000),
+                    getConfig().getString("state.redis.prefix", "aac:"),
+                    getConfig().getLong("state.redis.flush_interval_ms", 50));
+            sharedCooldowns = new SharedCooldowns(this, stateStore, rateLimiter);
+        } else {
+            stateStore = new MemoryStateStore();
+        }
+
+        // Where player heads set by name are looked up
+        profileResolver = new MojangProfileResolver(
+                getConfig().getString("heads.profile_url", MojangProfileResolver.DEFAULT_PROFILE_URL),
+                getConfig().getString("heads.session_url", MojangProfileResolver.DEFAULT_SESSION_URL),
+                getConfig().getString("heads.bulk_url", MojangProfileResolver.DEFAULT_BULK_URL),
+                Duration.ofMillis(getConfig().getLong("heads.connect_timeout_ms", 3000)),
+                Duration.ofMillis(getConfig().getLong("heads.request_timeout_ms", 5000)),
+                getConfig().getInt("heads.retries", 2),
+                new CircuitBreaker(getConfig().getInt("heads.failures_before_pause", 5), TimeUnit.SECONDS.toMillis(getConfig().getLong("heads.pause_seconds", 60))),
+                new RequestBudget(getConfig().getInt("heads.requests_per_window", 200), TimeUnit.SECONDS.toMillis(getConfig().getLong("heads.window_seconds", 600)),
+                        TimeUnit.SECONDS.toMillis(getConfig().getLong("heads.max_budget_wait_seconds", 10))),
+                metrics);
+
+        // Load the player head lookups cached by previous runs
+        profileCache = new ProfileCache(this, new File(getDataFolder(), "profiles.cache"));
+        profileLookupCache = new LookupCache<>(
+                getConfig().getInt("heads.memory_cache_size", 1024),
+                TimeUnit.MINUTES.toMillis(getConfig().getLong("heads.memory_ttl_minutes", 60)),
+                TimeUnit.MINUTES.toMillis(getConfig().getLong("heads.not_found_ttl_minutes", 30)));
+
+        // Threads fetching the skins of a panel's player heads ahead of compiling it, shared by every compile
+        headLookups = Executors.newFixedThreadPool(Math.max(1, getConfig().getInt("heads.max_concurrent_lookups", 4)), task -> {
+            Thread thread = new Thread(task, "AAC head lookup");
+            thread.setDaemon(true);
+            return thread;
+        });
 
-        // Set the strings
-        initializeStringMap();
+        // Keep a searchable log of every phrase sent, unless turned off
+        if (getConfig().getBoolean("audit.enabled", true)) {
+            auditLog = new AuditLog(this, new File(getDataFolder(), "audit"),
+                    getConfig().getInt("audit.buffer_size", 4096),
+                    getConfig().getLong("audit.segment_size_kb", 1024) * 1024,
+                    TimeUnit.HOURS.toMillis(getConfig().getLong("audit.segment_hours", 24)),
+                    TimeUnit.DAYS.toMillis(getConfig().getLong("audit.retention_days", 365)),
+                    getConfig().getLong("audit.flush_interval_ms", 1000));
+            auditLog.start();
+        }
+
+        // Count which phrases each player uses most for their favourites page, if turned on
+        if (getConfig().getBoolean("favourites.enabled", false)) {
+            favourites = new Favourites(this, new File(getDataFolder(), "favourites.dat"),
+                    Math.min(InventoryGUI.PAGE_SIZE, getConfig().getInt("favourites.size", 18)));
+            long saveInterval = Math.max(1, getConfig().getLong("favourites.save_interval_seconds", 60));
+            taskScheduler.runAsyncTimer(favourites::save, saveInterval, saveInterval, TimeUnit.SECONDS);
+        }
+
+        // Initialize our Inventory GUI. The panel stored by the last run is used if config.yml hasn't changed,
+        // otherwise the panel and strings are compiled in the background.
+        inventoryGUI = new InventoryGUI(this, "AAC");
+        if (inventoryGUI.getSnapshot().isPlaceholder())
+            reload();
 
         // Set commands
         getCommand("aac").setExecutor(new MainCommand(this));
 
         // Register events
         getServer().getPluginManager().registerEvents(new Click(this), this);
+        getServer().getPluginManager().registerEvents(new Session(this), this);
+        getServer().getPluginManager().registerEvents(new Search(this), this);
+
+        // Values read whenever the metrics are reported
+        metrics.gauge("aac_panel_phrases", "Phrases in the current panel", () -> inventoryGUI.getPhraseIndex().size());
+        metrics.gauge("aac_panel_pages", "Pages in the current panel", () -> inventoryGUI.getPageCount());
+        metrics.gauge("aac_cached_pages", "Rendered pages held in the page cache", () -> inventoryGUI.getCachedPageCount());
+        metrics.gauge("aac_search_tokens", "Distinct words in the search index", () -> inventoryGUI.getSnapshot().getSearchIndex().getTokenCount());
+        metrics.gauge("aac_compiled_locales", "Translations of the panel compiled and cached", () -> inventoryGUI.getCompiledLocaleCount());
+        metrics.gauge("aac_open_sessions", "Players with the panel open", () -> inventoryGUI.getSessions().size());
+        metrics.gauge("aac_rate_limit_buckets", "Cooldown and rate limit entries held in memory", () -> rateLimiter.size());
+
+        // Optionally write the metrics for Prometheus' node exporter textfile collector, or anything else that reads the format
+        long prometheusInterval = getConfig().getLong("metrics.prometheus_interval_seconds", 0);
+        if (prometheusInterval > 0) {
+            File prometheusFile = new File(getDataFolder(), getConfig().getString("metrics.prometheus_file", "metrics.prom"));
+            taskScheduler.runAsyncTimer(() -> {
+                try {
+                    metrics.writePrometheus(prometheusFile);
+                } catch (IOException e) {
+                    debug("Could not write metrics to " + prometheusFile.getName() + ": " + e.getMessage());
+                }
+            }, prometheusInterval, prometheusInterval, TimeUnit.SECONDS);
+        }
+
+        // Reload automatically when config.yml is saved, if turned on
+        updateConfigWatcher();
 
         getLogger().info("AAC - Augmentative and Alternative Communication initialized");
     }
@@ -47,17 +179,123 @@ public final class AAC extends JavaPlugin {
     @Override
     public void onDisable() {
         // Plugin shutdown logic
+        taskScheduler.cancelAll();
+
+        if (configWatcher != null)
+            configWatcher.stop();
+
+        if (headLookups != null)
+            headLookups.shutdownNow();
+
+        if (profileCache != null)
+            profileCache.close();
+
+        if (auditLog != null)
+            auditLog.stop();
+
+        if (favourites != null)
+            favourites.save();
+
+        if (stateStore != null)
+            stateStore.close();
+
         getLogger().info("AAC is no longer available for communicating.");
     }
 
     /**
      * Reload information from config.yml
+     * The file is read and the panel recompiled in the background, and the current one keeps working until it is done.
+     * If the file can't be loaded the future fails and nothing changes.
+     *
+     * @return
+     */
+    public CompletableFuture<PanelSnapshot> reload(){
+        return reload(false);
+    }
+
+    /**
+     * Reload information from config.yml
+     *
+     * @param onlyIfChanged Do nothing, completing with null, if the file hasn't changed since it was last loaded
+     * @return The panel compiled from the file, or null if nothing changed or a newer reload went live before this one
+     */
+    public CompletableFuture<PanelSnapshot> reload(boolean onlyIfChanged){
+        Executor async = taskScheduler.async();
+
+        return CompletableFuture
+                .supplyAsync(() -> {
+                    try {
+                        // The generation is taken along with the file, so the file read last is also the one whose panel wins
+                        synchronized (configLoader) {
+                            ConfigLoader.Loaded loaded = configLoader.load(onlyIfChanged);
+                            return loaded == null ? null : new PendingReload(loaded, inventoryGUI.nextGeneration());
+                        }
+                    } catch (IOException | InvalidConfigurationException e) {
+                        throw new CompletionException(e);
+                    }
+                }, async)
+                .thenCompose(pending -> {
+                    if (pending == null)
+                        return CompletableFuture.completedFuture(null);
+
+                    FileConfiguration loaded = pending.loaded().config();
+                    return inventoryGUI.reload(loaded, pending.loaded().hash(), pending.generation())
+                            .thenApply(compiled -> applyConfig(loaded, compiled) ? compiled : null);
+                });
+    }
+
+    private record PendingReload(ConfigLoader.Loaded loaded, long generation) {
+    }
+
+    /**
+     * Switch to the new config, but only if the panel compiled from it is the live one.
+     * When two reloads overlap and the older one finishes last, the newer panel stays live and so does its config.
+     *
+     * @param loaded
+     * @param compiled
+     * @return False if a newer reload went live first
+     */
+    private synchronized boolean applyConfig(FileConfiguration loaded, PanelSnapshot compiled){
+        if (inventoryGUI.getSnapshot() != compiled)
+            return false;
+
+        config = loaded;
+        rateLimiter.configure(loaded);
+        updateConfigWatcher();
+        return true;
+    }
+
+    /**
+     * The config currently in use. After a reload this is the config the panel was compiled from.
+     *
+     * @return
+     */
+    @Override
+    public FileConfiguration getConfig(){
+        FileConfiguration loaded = this.config;
+        return loaded != null ? loaded : super.getConfig();
+    }
+
+    /**
+     * Start or stop watching config.yml to match the auto_reload setting
      */
-    public void reload(){
-        reloadConfig();
-        initializeStringMap();
-        inventoryGUI.reload();
-        saveConfig();
+    private synchronized void updateConfigWatcher(){
+        boolean enabled = getConfig().getBoolean("auto_reload.enabled", false);
+
+        if (enabled && configWatcher == null) {
+            configWatcher = new ConfigWatcher(this, new File(getDataFolder(), "config.yml").toPath(), getConfig().getLong("auto_reload.debounce_ms", 500));
+            try {
+                configWatcher.start();
+                debug("Watching config.yml for changes");
+            } catch (IOException e) {
+                toConsole("Error: Could not watch config.yml for changes. " + e.getMessage());
+                configWatcher = null;
+            }
+        }
+        else if (!enabled && configWatcher != null) {
+            configWatcher.stop();
+            configWatcher = null;
+        }
     }
 
 
@@ -71,15 +309,57 @@ public final class AAC extends JavaPlugin {
     }
 
     /**
-     * Retrieve and store strings from config.yml
+     * Reference to the service player heads are looked up from
      *
+     * @return
      */
-    public void initializeStringMap(){
-        // Loop over strings section of config.yml
-        for( String path : getConfig().getConfigurationSection("strings").getKeys(false) ){
-            stringMap.put(path, getConfig().getString("strings." + path, "String not found: " + path));
-        }
-        debug("Strings initialized from config.");
+    public ProfileResolver getProfileResolver(){
+        return this.profileResolver;
+    }
+
+    /**
+     * Reference to the player head profile cache
+     *
+     * @return
+     */
+    public ProfileCache getProfileCache(){
+        return this.profileCache;
+    }
+
+    /**
+     * Reference to the in-memory cache of player name to head texture lookups
+     *
+     * @return
+     */
+    public LookupCache<String, String> getProfileLookupCache(){
+        return this.profileLookupCache;
+    }
+
+    /**
+     * Reference to the threads that fetch player head skins ahead of compiling the panel
+     *
+     * @return
+     */
+    public ExecutorService getHeadLookups(){
+        return this.headLookups;
+    }
+
+    /**
+     * Where tasks are run, on Paper and on Folia alike
+     *
+     * @return
+     */
+    public TaskScheduler getTaskScheduler(){
+        return this.taskScheduler;
+    }
+
+    /**
+     * Reference to the plugin's timings and counters
+     *
+     * @return
+     */
+    public Metrics getMetrics(){
+        return this.metrics;
     }
 
     /**
@@ -88,45 +368,110 @@ public final class AAC extends JavaPlugin {
      * @return
      */
     public String getString(String key){
-        return stringMap.get(key);
+        return inventoryGUI.getSnapshot().getString(key);
     }
 
     /**
-     * Clear the string map for config reload purpoases
+     * Return the string corresponding to "key" in the language of whoever it is for
      *
+     * @param sender A player gets the string from their locale file, if there is one
+     * @param key
+     * @return
      */
-    public void clearStringMap(){
-        stringMap.clear();
+    public String getString(CommandSender sender, String key){
+        if( sender instanceof Player player )
+            return inventoryGUI.getSnapshot(player).getString(key);
+
+        return getString(key);
     }
 
     /**
-     * Return true or false if player is still within the cooldown cache
+     * Check the player's cooldown and rate limits for sending the phrases and, if allowed, start the cooldown
      *
      * @param player
-     * @return
+     * @param phrases Keys of the phrases in the message, one unless it is a composed sentence
+     * @return 0 if the message may be sent, otherwise the milliseconds remaining before it may be
      */
-    public boolean isInCooldown(Player player){
-        return cooldown.asMap().containsKey(player.getUniqueId());
+    public long tryStartCooldown(Player player, List<String> phrases){
+        long remaining = rateLimiter.tryAcquire(player.getUniqueId(), phrases);
+        if (remaining > 0)
+            metrics.getCooldownRejections().increment();
+        else if (sharedCooldowns != null)
+            sharedCooldowns.publish(player.getUniqueId());
+
+        return remaining;
     }
 
     /**
-     * Get the amount of time remaining before next message can be sent
+     * Record a phrase the player sent through the panel.
+     * Goes to the audit log if it is turned on, otherwise to the console.
      *
      * @param player
+     * @param phrase
+     * @param output
+     */
+    public void audit(Player player, String phrase, String output){
+        if (auditLog == null) {
+            toConsole(player.getName() + " is using AAC to generate the following text in chat:");
+            return;
+        }
+
+        if (!auditLog.record(new AuditRecord(System.currentTimeMillis(), player.getUniqueId(), phrase, output)))
+            metrics.getAuditDropped().increment();
+    }
+
+    /**
+     * Reference to the audit log, or null if it is turned off
+     *
      * @return
      */
-    public long getCooldownRemaining(Player player){
-        return TimeUnit.MILLISECONDS.toSeconds(cooldown.asMap().get(player.getUniqueId()) - System.currentTimeMillis());
+    public AuditLog getAuditLog(){
+        return this.auditLog;
     }
 
     /**
-     * Add player to the cooldown cache
+     * Reference to the players' phrase usage, or null if favourites are turned off
      *
-     * @param player
+     * @return
      */
-    public void addPlayerCooldown(Player player){
-        int cooldown_in_seconds = getConfig().getInt("settings.cooldown_in_seconds") * 1000;
-        cooldown.put(player.getUniqueId(), System.currentTimeMillis() + cooldown_in_seconds);
+    public Favourites getFavourites(){
+        return this.favourites;
+    }
+
+    /**
+     * Reads config.yml for reloads
+     *
+     * @return
+     */
+    public ConfigLoader getConfigLoader(){
+        return this.configLoader;
+    }
+
+    /**
+     * Reference to the state shared with other servers, which only lives in memory unless set up in config.yml
+     *
+     * @return
+     */
+    public StateStore getStateStore(){
+        return this.stateStore;
+    }
+
+    /**
+     * Reference to the cooldowns shared with other servers, or null if state isn't shared
+     *
+     * @return
+     */
+    public SharedCooldowns getSharedCooldowns(){
+        return this.sharedCooldowns;
+    }
+
+    /**
+     * Reference to the rate limiter
+     *
+     * @return
+     */
+    public RateLimiter getRateLimiter(){
+        return this.rateLimiter;
     }
 
     public void debug(String string){
@@ -150,7 +495,18 @@ public final class AAC extends JavaPlugin {
      * @return
      */
     public Component errorMessage(String errorString){
-        return Component.text(getString(errorString)).color(TextColor.color(190, 0, 0));
+        return errorMessage(null, errorString);
+    }
+
+    /**
+     * Returns a text Component with the given string, in the language of whoever it is for
+     *
+     * @param sender
+     * @param errorString
+     * @return
+     */
+    public Component errorMessage(CommandSender sender, String errorString){
+        return Component.text(getString(sender, errorString)).color(TextColor.color(190, 0, 0));
     }
 
     /**
@@ -161,11 +517,51 @@ public final class AAC extends JavaPlugin {
      * @return
      */
     public Component errorMessage(String errorString, HashMap<String, String> replacements){
-        String returnMessage = getString(errorString);
+        return errorMessage(null, errorString, replacements);
+    }
+
+    /**
+     * Returns a text Component with the given string, in the language of whoever it is for, with some text replaced
+     *
+     * @param sender
+     * @param errorString
+     * @param replacements
+     * @return
+     */
+    public Component errorMessage(CommandSender sender, String errorString, HashMap<String, String> replacements){
+        String returnMessage = getString(sender, errorString);
         for( Map.Entry<String, String> set : replacements.entrySet() ){
             returnMessage = returnMessage.replace(set.getKey(), set.getValue());
         }
 
         return Component.text(returnMessage).color(TextColor.color(190, 0, 0));
     }
+
+    /**
+     * Returns an informational text Component with the given string but also replaces some text, based on replacements hashmap
+     *
+     * @param messageString
+     * @param replacements
+     * @return
+     */
+    public Component infoMessage(String messageString, HashMap<String, String> replacements){
+        return infoMessage(null, messageString, replacements);
+    }
+
+    /**
+     * Returns an informational text Component with the given string, in the language of whoever it is for, with some text replaced
+     *
+     * @param sender
+     * @param messageString
+     * @param replacements
+     * @return
+     */
+    public Component infoMessage(CommandSender sender, String messageString, HashMap<String, String> replacements){
+        String returnMessage = getString(sender, messageString);
+        for( Map.Entry<String, String> set : replacements.entrySet() ){
+            returnMessage = returnMessage.replace(set.getKey(), set.getValue());
+        }
+
+        return Component.text(returnMessage).color(TextColor.color(60, 180, 180));
+    }
 }
@@ -1,32 +1,60 @@
 package com.autcraft.aac;
 
+import com.autcraft.aac.profiles.LookupCache;
+import com.autcraft.aac.profiles.ProfileCache;
+import com.autcraft.aac.profiles.ProfileResolver;
 import net.kyori.adventure.text.Component;
 import org.bukkit.Bukkit;
 import org.bukkit.Material;
-import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.SkullMeta;
 import org.bukkit.profile.PlayerProfile;
 import org.bukkit.profile.PlayerTextures;
-import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.text.ParseException;
-import java.util.Base64;
-import java.util.List;
-import java.util.Scanner;
-import java.util.UUID;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 public class CreatePlayerHead {
 
     JSONParser PARSER = new JSONParser();
 
+    // Heads with the same skin share one profile, with a UUID derived from the skin URL.
+    // Clients then recognise the head on every page open instead of treating it as a new profile and fetching its skin again.
+    private static final int MAX_PROFILES = 1024;
+    private static final Map<String, String> SKIN_URLS = boundedMap(MAX_PROFILES);
+    private static final Map<String, PlayerProfile> PROFILES = boundedMap(MAX_PROFILES);
+
+    private final ProfileResolver profileResolver;
+    private final ProfileCache profileCache;
+    private final LookupCache<String, String> lookupCache;
+
+    /**
+     * Player head creator for heads with a known texture only. Heads looked up by player name will come back as null.
+     */
+    public CreatePlayerHead() {
+        this(null, null, null);
+    }
+
+    /**
+     * @param profileResolver Where to look up player names and textures, or null to not look them up
+     * @param profileCache    Cache on disk to check before asking Mojang, or null to always ask
+     * @param lookupCache     Cache of player name to texture lookups in memory, or null to always look up
+     */
+    public CreatePlayerHead(ProfileResolver profileResolver, ProfileCache profileCache, LookupCache<String, String> lookupCache) {
+        this.profileResolver = profileResolver;
+        this.profileCache = profileCache;
+        this.lookupCache = lookupCache;
+    }
+
     /**
      * Retrieve a player head just from a player's name
      *
@@ -34,16 +62,134 @@ public class CreatePlayerHead {
      * @return
      */
     public ItemStack getSkull(String playerName, List<Component> lore) {
-        String uuid = null;
         String texture = null;
         try {
-            // Retrieve the player's UUID if at all possible
-            // If it fails, that player probably doesn't exist
-            uuid = getUUIDFromMojangByName(playerName);
-        } catch (IOException | ParseException e) {
+            // Names that were already looked up, found or not, are answered from memory.
+            // Entries naming the same player share a single lookup.
+            if (lookupCache != null) {
+                texture = lookupCache.get(playerName.toLowerCase(Locale.ROOT), () -> getTextureByName(playerName));
+            } else {
+                texture = getTextureByName(playerName);
+            }
+        } catch (Exception e) {
             return null;
         }
 
+        // The player doesn't exist, or has no skin
+        if (texture == null) {
+            return null;
+        }
+
+        // Now run the main function to return the item stack
+        return getSkull(texture, Component.text(playerName), lore);
+    }
+
+    /**
+     * Look up the skins of many players ahead of building their heads, so that {@link #getSkull(String, List)} finds them in memory.
+     *
+     * Names not cached yet are resolved to UUIDs in as few requests as the profile service allows,
+     * then their textures are fetched a few at a time. Anything that fails here is looked up again, one at a time, when its head is built.
+     *
+     * @param playerNames
+     * @param executor    Where the texture lookups run, its threads being the most that run at once
+     */
+    public void prefetch(Collection<String> playerNames, ExecutorService executor) {
+        if (profileResolver == null) {
+            return;
+        }
+
+        // Names nobody has looked up yet, by lower case name
+        Map<String, String> pending = new LinkedHashMap<>();
+        for (String playerName : playerNames) {
+            String key = playerName.toLowerCase(Locale.ROOT);
+            if (lookupCache == null || !lookupCache.contains(key)) {
+                pending.putIfAbsent(key, playerName);
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        // UUIDs from the profile cache first, then the rest in bulk
+        Map<String, String> uuids = new HashMap<>();
+        List<String> unknown = new ArrayList<>();
+        for (Map.Entry<String, String> entry : pending.entrySet()) {
+            String playerName = entry.getValue();
+            String uuid = profileCache == null ? null : profileCache.getUUID(playerName, () -> {
+                try {
+                    return getUUIDFromMojangByName(playerName);
+                } catch (IOException e) {
+                    return null;
+                }
+            });
+            if (uuid != null) {
+                uuids.put(entry.getKey(), uuid);
+            } else {
+                unknown.add(playerName);
+            }
+        }
+
+        if (!unknown.isEmpty()) {
+            try {
+                Map<String, String> found = profileResolver.getUUIDs(unknown);
+                for (String playerName : unknown) {
+                    String key = playerName.toLowerCase(Locale.ROOT);
+                    String uuid = found.get(key);
+                    if (uuid != null) {
+                        uuids.put(key, uuid);
+                        if (profileCache != null) {
+                            profileCache.putUUID(playerName, uuid);
+                        }
+                    } else if (lookupCache != null) {
+                        // No such player, remembered like any other name that wasn't found
+                        lookupCache.put(key, null);
+                    }
+                }
+            } catch (IOException e) {
+                Bukkit.getLogger().info("Error: Could not look up " + unknown.size() + " player names at once, they will be looked up one at a time. " + e.getMessage());
+            }
+        }
+        if (uuids.isEmpty()) {
+            return;
+        }
+
+        // Fetch the textures, a few at a time
+        List<Callable<Void>> lookups = new ArrayList<>();
+        for (Map.Entry<String, String> entry : uuids.entrySet()) {
+            lookups.add(() -> {
+                try {
+                    String texture = resolveTexture(UUID.fromString(entry.getValue()));
+                    if (lookupCache != null) {
+                        lookupCache.put(entry.getKey(), texture);
+                    }
+                } catch (IOException | IllegalArgumentException ignored) {
+                    // Left to the lookup when the head is built
+                }
+                return null;
+            });
+        }
+
+        try {
+            executor.invokeAll(lookups);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RejectedExecutionException e) {
+            // Shutting down, left to the lookup when the head is built
+        }
+    }
+
+    /**
+     * Look up the skin texture for a player name, first the UUID and then the texture for that UUID
+     *
+     * @param playerName
+     * @return The texture, or null if the player doesn't exist
+     * @throws IOException
+     */
+    private String getTextureByName(String playerName) throws IOException {
+        // Retrieve the player's UUID if at all possible
+        // If it fails, that player probably doesn't exist
+        String uuid = resolveUUID(playerName);
+
         // Somehow mojang returned a blank uuid?
         if (uuid == null) {
             Bukkit.getLogger().info("Error: Could not retrieve UUID for player " + playerName + ". Using a Player Head for now but try \"/aac reload\" and see if it fixes it.");
@@ -52,43 +198,72 @@ public class CreatePlayerHead {
 
         // Try to retrieve the texture from Mojang's Session server
         // If it fails, it means that Mojang's servers are down.
+        return resolveTexture(UUID.fromString(uuid));
+    }
+
+    /**
+     * Player head showing the texture, using the profile shared by every head with the same skin
+     *
+     * @param texture    Base64 texture, either as entered in the config or as returned by Mojang
+     * @param customName
+     * @param lore
+     * @return Null if the texture has no usable skin, such as a mistyped texture or a player with the default skin
+     */
+    public ItemStack getSkull(String texture, Component customName, List<Component> lore) {
         try {
-            texture = getSkinTextureByUUID(UUID.fromString(uuid));
-        } catch (IOException | org.json.simple.parser.ParseException e) {
+            return getSkull(getProfile(texture), customName, lore);
+        } catch (RuntimeException e) {
+            Bukkit.getLogger().info("Unable to build a player head from " + texture + ": " + e.getMessage());
             return null;
         }
-
-        // Now run the main function to return the item stack
-        return getSkull(UUID.randomUUID(), texture, Component.text(playerName), lore);
     }
 
+    /**
+     * Player head showing the texture, with a profile of its own
+     *
+     * @param uuid
+     * @param texture    Base64 texture, either as entered in the config or as returned by Mojang
+     * @param customName
+     * @param lore
+     * @return Null if the texture has no usable skin
+     */
     public ItemStack getSkull(UUID uuid, String texture, Component customName, List<Component> lore) {
-        // Create the item stack in advance
-        ItemStack skull = new ItemStack(Material.PLAYER_HEAD, 1);
-        SkullMeta meta = (SkullMeta) skull.getItemMeta();
-        String url = null;
-
-        // Depending on the length of the texture string, use the appropriate method to extra the URL
-        if (texture.length() > 200) {
-            try {
-                url = getSkinURLFromMojang(texture);
-            } catch (UnsupportedEncodingException | org.json.simple.parser.ParseException e) {
-                Bukkit.getLogger().info("Unable to retrieve URL from " + texture);
-            }
-        } else {
-            url = getSkinURLFromString(texture);
+        try {
+            return getSkull(createProfile(uuid, getSkinURL(texture)), customName, lore);
+        } catch (RuntimeException e) {
+            Bukkit.getLogger().info("Unable to build a player head from " + texture + ": " + e.getMessage());
+            return null;
         }
+    }
 
-        PlayerProfile profile = Bukkit.createPlayerProfile(uuid);
-        PlayerTextures textures = profile.getTextures();
-        URL urlObject;
-        try {
-            urlObject = new URL(url); // The URL to the skin, for example: https://textures.minecraft.net/texture/18813764b2abc94ec3c3bc67b9147c21be850cdf996679703157f4555997ea63a
-        } catch (MalformedURLException exception) {
-            throw new RuntimeException("Invalid URL", exception);
+    /**
+     * The profile shared by every head with the texture's skin.
+     * Its UUID is derived from the skin URL, so it is the same after every reload and restart.
+     *
+     * @param texture
+     * @return
+     */
+    public PlayerProfile getProfile(String texture) {
+        String url = getSkinURL(texture);
+        synchronized (PROFILES) {
+            return PROFILES.computeIfAbsent(url, key -> createProfile(getProfileUUID(key), key));
         }
-        textures.setSkin(urlObject); // Set the skin of the player profile to the URL
-        profile.setTextures(textures); // Set the textures back to the profile
+    }
+
+    /**
+     * UUID of the shared profile for a skin
+     *
+     * @param skinURL
+     * @return
+     */
+    public static UUID getProfileUUID(String skinURL) {
+        return UUID.nameUUIDFromBytes(skinURL.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private ItemStack getSkull(PlayerProfile profile, Component customName, List<Component> lore) {
+        // Create the item stack in advance
+        ItemStack skull = new ItemStack(Material.PLAYER_HEAD, 1);
+        SkullMeta meta = (SkullMeta) skull.getItemMeta();
 
         // Set all that data to the itemstack metadata
         meta.setOwnerProfile(profile);
@@ -109,68 +284,73 @@ public class CreatePlayerHead {
     }
 
     /**
-     * Retrieve the player's UUID from just their name
+     * Retrieve the player's UUID from the profile cache, or from Mojang if it isn't cached yet
      *
      * @param name
      * @return
      * @throws IOException
-     * @throws ParseException
      */
-    public String getUUIDFromMojangByName(String name) throws IOException, ParseException {
-        String uuid = null;
-
-        // First obvious method is to just get it from the server itself.
-        Player player = Bukkit.getPlayer(name);
-        if (player != null) {
-            return player.getUniqueId().toString();
+    private String resolveUUID(String name) throws IOException {
+        if (profileCache == null) {
+            return getUUIDFromMojangByName(name);
         }
 
-        // If the server has no record of the player, get it from Mojang's API
-        URL url = new URL("https://api.mojang.com/users/profiles/minecraft/" + name);
-
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("GET");
-        conn.connect();
-
-        int responsecode = conn.getResponseCode();
-
-        if (responsecode != 200) {
-            //throw new RuntimeException("HttpResponseCode: " + responsecode);
-            return null;
-        } else {
-
-            String inline = "";
-            Scanner scanner = new Scanner(url.openStream());
-
-            //Write all the JSON data into a string using a scanner
-            while (scanner.hasNext()) {
-                inline += scanner.nextLine();
+        String uuid = profileCache.getUUID(name, () -> {
+            try {
+                return getUUIDFromMojangByName(name);
+            } catch (IOException e) {
+                return null;
             }
+        });
+        if (uuid == null) {
+            uuid = getUUIDFromMojangByName(name);
+            profileCache.putUUID(name, uuid);
+        }
 
-            //Close the scanner
-            scanner.close();
+        return uuid;
+    }
 
-            //Using the JSON simple library parse the string into a json object
-            JSONParser parse = new JSONParser();
-            JSONObject data_obj = null;
-            try {
-                data_obj = (JSONObject) parse.parse(inline);
-            } catch (org.json.simple.parser.ParseException e) {
-                e.printStackTrace();
-            }
+    /**
+     * Retrieve the player's skin texture from the profile cache, or from Mojang if it isn't cached yet
+     *
+     * @param uuid
+     * @return
+     * @throws IOException
+     */
+    private String resolveTexture(UUID uuid) throws IOException {
+        if (profileCache == null) {
+            return getSkinTextureByUUID(uuid);
+        }
 
-            //Get the required object from the above created object
-            if (data_obj != null) {
-                uuid = data_obj.get("id").toString();
+        String texture = profileCache.getTexture(uuid.toString(), () -> {
+            try {
+                return getSkinTextureByUUID(uuid);
+            } catch (IOException e) {
+                return null;
             }
-        }
-        if (uuid != null) {
-            String result = uuid;
-            result = uuid.substring(0, 8) + "-" + uuid.substring(8, 12) + "-" + uuid.substring(12, 16) + "-" + uuid.substring(16, 20) + "-" + uuid.substring(20, 32);
-            uuid = result;
+        });
+        if (texture == null) {
+            texture = getSkinTextureByUUID(uuid);
+            profileCache.putTexture(uuid.toString(), texture);
         }
 
-        return uuid;
+        return texture;
+    }
+
+    /**
+     * Retrieve the player's UUID from just their name
+     *
+     * @param name
+     * @return
+     * @throws IOException
+     */
+    public String getUUIDFromMojangByName(String name) throws IOException {
+        // Heads are built on the compile thread, where asking the server for online players isn't safe,
+        // so the UUID always comes from Mojang's API, through the caches in front of it
+        if (profileResolver == null) {
+            return null;
+        }
+        return profileResolver.getUUID(name);
     }
 
 
@@ -180,52 +360,72 @@ public class CreatePlayerHead {
      * @param uuid
      * @return
      * @throws IOException
-     * @throws org.json.simple.parser.ParseException
      */
-    public String getSkinTextureByUUID(UUID uuid) throws IOException, org.json.simple.parser.ParseException {
-        String texture = null;
-        String apiURL = "https://sessionserver.mojang.com/session/minecraft/profile/" + uuid.toString();
-
-        URL url = new URL(apiURL);
-
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("GET");
-        conn.connect();
+    public String getSkinTextureByUUID(UUID uuid) throws IOException {
+        if (profileResolver == null) {
+            return null;
+        }
+        return profileResolver.getTexture(uuid);
+    }
 
-        int responsecode = conn.getResponseCode();
+    private PlayerProfile createProfile(UUID uuid, String url) {
+        PlayerProfile profile = Bukkit.createPlayerProfile(uuid);
+        PlayerTextures textures = profile.getTextures();
+        URL urlObject;
+        try {
+            urlObject = new URL(url); // The URL to the skin, for example: https://textures.minecraft.net/texture/18813764b2abc94ec3c3bc67b9147c21be850cdf996679703157f4555997ea63a
+        } catch (MalformedURLException exception) {
+            throw new IllegalArgumentException("Invalid skin URL " + url, exception);
+        }
+        textures.setSkin(urlObject); // Set the skin of the player profile to the URL
+        profile.setTextures(textures); // Set the textures back to the profile
+        return profile;
+    }
 
-        if (responsecode != 200) {
-            throw new RuntimeException("HttpResponseCode: " + responsecode);
-        } else {
+    /**
+     * Skin URL inside the texture, decoded once per texture
+     *
+     * @param texture
+     * @return
+     */
+    private String getSkinURL(String texture) {
+        synchronized (SKIN_URLS) {
+            String url = SKIN_URLS.get(texture);
+            if (url != null) {
+                return url;
+            }
+        }
 
-            String inline = "";
-            Scanner scanner = new Scanner(url.openStream());
+        String url = null;
 
-            //Write all the JSON data into a string using a scanner
-            while (scanner.hasNext()) {
-                inline += scanner.nextLine();
+        // Depending on the length of the texture string, use the appropriate method to extra the URL
+        if (texture.length() > 200) {
+            try {
+                url = getSkinURLFromMojang(texture);
+            } catch (UnsupportedEncodingException | org.json.simple.parser.ParseException e) {
+                Bukkit.getLogger().info("Unable to retrieve URL from " + texture);
             }
+        } else {
+            url = getSkinURLFromString(texture);
+        }
 
-            //Close the scanner
-            scanner.close();
-
-            //Using the JSON simple library parse the string into a json object
-            JSONParser parse = new JSONParser();
-            JSONObject data_obj = (JSONObject) parse.parse(inline);
-            JSONArray propertiesArray = (JSONArray) data_obj.get("properties");
-            for (JSONObject property : (List<JSONObject>) propertiesArray) {
-                String name = (String) property.get("name");
-                if (name.equals("textures")) {
-                    return (String) property.get("value");
-                }
-            }
+        if (url == null) {
+            throw new IllegalArgumentException("No skin URL in the texture");
+        }
 
-            //Get the required object from the above created object
-            System.out.println(data_obj.values());
-            texture = data_obj.get("properties").toString();
+        synchronized (SKIN_URLS) {
+            SKIN_URLS.put(texture, url);
         }
+        return url;
+    }
 
-        return texture;
+    private static <V> Map<String, V> boundedMap(int maximumSize) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maximumSize;
+            }
+        };
     }
 
     /**
@@ -258,7 +458,7 @@ public class CreatePlayerHead {
         String decodedBase64 = new String(Base64.getDecoder().decode(base64), "UTF-8");
         JSONObject base64json = (JSONObject) PARSER.parse(decodedBase64);
         JSONObject textures = (JSONObject) base64json.get("textures");
-        if (textures.containsKey("SKIN")) {
+        if (textures != null && textures.containsKey("SKIN")) {
             JSONObject skinObject = (JSONObject) textures.get("SKIN");
             texture = (String) skinObject.get("url");
         }
@@ -0,0 +1,440 @@
+package com.autcraft.aac.audit;
+
+import com.autcraft.aac.AAC;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Durable record of every phrase sent through the panel, kept apart from the server log so staff can search it.
+ *
+ * Sending a phrase only puts a record into a bounded lock-free buffer. A background thread drains it in batches
+ * into the active segment, a plain binary file in plugins/AAC/audit. Once a segment is big or old enough it is sealed:
+ * compressed with gzip and given a small index of the players in it and their time ranges.
+ * A history query reads the indexes first and only decompresses the segments that hold the player's records,
+ * newest first, stopping as soon as it has enough.
+ */
+public class AuditLog implements Runnable {
+    private static final int MAGIC = 0x41414341; // "AACA"
+    private static final short VERSION = 1;
+    private static final String PREFIX = "audit-";
+    private static final String ACTIVE_SUFFIX = ".seg";
+    private static final String SEALED_SUFFIX = ".seg.gz";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    AAC plugin;
+
+    private final File directory;
+    private final RingBuffer<AuditRecord> buffer;
+    private final long segmentBytes;
+    private final long segmentMillis;
+    private final long retentionMillis;
+    private final long flushNanos;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean running;
+    private Thread thread;
+
+    // Active segment, only written by the writer thread and read by queries while holding this object's lock
+    private File activeFile;
+    private DataOutputStream active;
+    private long activeStarted;
+    private final Map<UUID, SegmentIndex.PlayerRange> activePlayers = new HashMap<>();
+
+    /**
+     * @param plugin
+     * @param directory      Where the segments are kept
+     * @param bufferSize     How many records can wait to be written before new ones are dropped
+     * @param segmentBytes   Seal the active segment once it is this big
+     * @param segmentMillis  Seal the active segment once it is this old
+     * @param retentionMillis Delete sealed segments once their newest record is this old, 0 to keep them forever
+     * @param flushMillis    How often the writer thread wakes up to write what is waiting
+     */
+    public AuditLog(AAC plugin, File directory, int bufferSize, long segmentBytes, long segmentMillis, long retentionMillis, long flushMillis) {
+        this.plugin = plugin;
+        this.directory = directory;
+        this.buffer = new RingBuffer<>(bufferSize);
+        this.segmentBytes = segmentBytes;
+        this.segmentMillis = segmentMillis;
+        this.retentionMillis = retentionMillis;
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(10, flushMillis));
+    }
+
+    /**
+     * Seal anything left from the last run and start the writer thread
+     */
+    public synchronized void start() {
+        if (!directory.exists() && !directory.mkdirs()) {
+            plugin.toConsole("Error: Could not create " + directory.getPath());
+        }
+
+        // An active segment left behind by a crash is sealed as it is, up to its last complete record
+        File[] leftovers = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(ACTIVE_SUFFIX));
+        if (leftovers != null) {
+            for (File leftover : leftovers) {
+                seal(leftover);
+            }
+        }
+
+        running = true;
+        thread = new Thread(this, "AAC audit writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Write everything still waiting, seal the active segment and stop the writer thread
+     */
+    public void stop() {
+        Thread writer;
+        synchronized (this) {
+            writer = thread;
+            thread = null;
+        }
+        if (writer == null) {
+            return;
+        }
+
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queue a phrase to be written. Safe to call from any thread and never blocks.
+     *
+     * @param record
+     * @return False if the buffer is full and the record was dropped
+     */
+    public boolean record(AuditRecord record) {
+        if (buffer.offer(record)) {
+            return true;
+        }
+
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Number of records dropped because the writer couldn't keep up
+     *
+     * @return
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            if (!drain()) {
+                LockSupport.parkNanos(this, flushNanos);
+            }
+        }
+
+        // Shutting down
+        drain();
+        synchronized (this) {
+            closeActive();
+        }
+    }
+
+    /**
+     * Write everything waiting in the buffer as one batch
+     *
+     * @return True if anything was written
+     */
+    private boolean drain() {
+        AuditRecord record = buffer.poll();
+        if (record == null) {
+            return false;
+        }
+
+        synchronized (this) {
+            try {
+                do {
+                    if (active == null) {
+                        openActive(record.timestamp());
+                    }
+                    writeRecord(active, record);
+                    long timestamp = record.timestamp();
+                    activePlayers.computeIfAbsent(record.playerId(), id -> new SegmentIndex.PlayerRange(timestamp)).add(timestamp);
+                } while ((record = buffer.poll()) != null);
+                active.flush();
+
+                if (active.size() >= segmentBytes || System.currentTimeMillis() - activeStarted >= segmentMillis) {
+                    closeActive();
+                }
+            } catch (IOException e) {
+                plugin.toConsole("Error: Could not write the AAC audit log. " + e.getMessage());
+                closeActive();
+            }
+        }
+
+        return true;
+    }
+
+    private void openActive(long timestamp) throws IOException {
+        activeStarted = System.currentTimeMillis();
+
+        // Segments are named after the time they were started, which has to be unique
+        long name = Math.max(timestamp, activeStarted);
+        while (new File(directory, PREFIX + name + ACTIVE_SUFFIX).exists() || new File(directory, PREFIX + name + INDEX_SUFFIX).exists()) {
+            name++;
+        }
+        activeFile = new File(directory, PREFIX + name + ACTIVE_SUFFIX);
+        active = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(activeFile)));
+        active.writeInt(MAGIC);
+        active.writeShort(VERSION);
+        activePlayers.clear();
+    }
+
+    /**
+     * Close the active segment, seal it and clean up old ones
+     */
+    private void closeActive() {
+        if (active == null) {
+            return;
+        }
+
+        try {
+            active.close();
+        } catch (IOException e) {
+            plugin.toConsole("Error: Could not close the AAC audit log. " + e.getMessage());
+        }
+        active = null;
+        activePlayers.clear();
+
+        seal(activeFile);
+        activeFile = null;
+        deleteExpired();
+    }
+
+    /**
+     * Compress a finished segment and write its index.
+     * The index is written last, so a segment only counts as sealed once it has one.
+     *
+     * @param file
+     */
+    private void seal(File file) {
+        String base = file.getName().substring(0, file.getName().length() - ACTIVE_SUFFIX.length());
+        File sealed = new File(directory, base + SEALED_SUFFIX);
+        File index = new File(directory, base + INDEX_SUFFIX);
+
+        Map<UUID, SegmentIndex.PlayerRange> players = new TreeMap<>();
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        int count = 0;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+             DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(sealed))))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+
+            if (readHeader(in)) {
+                AuditRecord record;
+                while ((record = readRecord(in)) != null) {
+                    writeRecord(out, record);
+                    long timestamp = record.timestamp();
+                    players.computeIfAbsent(record.playerId(), id -> new SegmentIndex.PlayerRange(timestamp)).add(timestamp);
+                    first = Math.min(first, timestamp);
+                    last = Math.max(last, timestamp);
+                    count++;
+                }
+            }
+        } catch (IOException e) {
+            plugin.toConsole("Error: Could not seal AAC audit segment " + file.getName() + ". " + e.getMessage());
+            return;
+        }
+
+        try {
+            if (count == 0) {
+                Files.deleteIfExists(sealed.toPath());
+            } else {
+                SegmentIndex.write(index, players, first, last, count);
+            }
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            plugin.toConsole("Error: Could not index AAC audit segment " + file.getName() + ". " + e.getMessage());
+        }
+    }
+
+    /**
+     * Delete sealed segments whose newest record is older than the retention time
+     */
+    private void deleteExpired() {
+        if (retentionMillis <= 0) {
+            return;
+        }
+
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        for (Segment segment : sealedSegments()) {
+            try {
+                if (SegmentIndex.open(segment.index).getLastTimestamp() < cutoff) {
+                    Files.deleteIfExists(segment.index.toPath());
+                    Files.deleteIfExists(segment.data.toPath());
+                    plugin.debug("Deleted expired AAC audit segment " + segment.data.getName());
+                }
+            } catch (IOException e) {
+                plugin.debug("Could not expire AAC audit segment " + segment.data.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The player's most recent phrases, newest first. Reads from disk, so call it off the main thread.
+     *
+     * @param playerId
+     * @param since    Only records at or after this time, in milliseconds since the epoch
+     * @param limit    Most records to return
+     * @return
+     * @throws IOException
+     */
+    public List<AuditRecord> history(UUID playerId, long since, int limit) throws IOException {
+        ArrayDeque<AuditRecord> found = new ArrayDeque<>(limit);
+
+        // The active segment holds the newest records
+        synchronized (this) {
+            if (active != null && activePlayers.containsKey(playerId) && activePlayers.get(playerId).last >= since) {
+                active.flush();
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(activeFile)))) {
+                    collect(in, playerId, since, limit, found);
+                }
+            }
+        }
+
+        // Then the sealed segments, newest first, skipping any the index says can't have a match
+        List<Segment> segments = sealedSegments();
+        for (int i = segments.size() - 1; i >= 0 && found.size() < limit; i--) {
+            Segment segment = segments.get(i);
+            SegmentIndex index;
+            try {
+                index = SegmentIndex.open(segment.index);
+            } catch (IOException | UncheckedIOException e) {
+                continue;
+            }
+            if (index.getLastTimestamp() < since) {
+                break;
+            }
+
+            SegmentIndex.PlayerRange range = index.find(playerId);
+            if (range == null || range.last < since) {
+                continue;
+            }
+
+            ArrayDeque<AuditRecord> older = new ArrayDeque<>(limit - found.size());
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(segment.data))))) {
+                collect(in, playerId, since, limit - found.size(), older);
+            } catch (FileNotFoundException e) {
+                // Expired while we were looking
+                continue;
+            }
+            found.addAll(older);
+        }
+
+        return new ArrayList<>(found);
+    }
+
+    /**
+     * Read a segment and keep the newest matching records, newest first
+     *
+     * @param in
+     * @param playerId
+     * @param since
+     * @param limit
+     * @param found
+     * @throws IOException
+     */
+    private void collect(DataInputStream in, UUID playerId, long since, int limit, ArrayDeque<AuditRecord> found) throws IOException {
+        if (limit <= 0 || !readHeader(in)) {
+            return;
+        }
+
+        // Segments are in time order, so keep a sliding window of the last matches
+        ArrayDeque<AuditRecord> window = new ArrayDeque<>(limit);
+        AuditRecord record;
+        while ((record = readRecord(in)) != null) {
+            if (record.timestamp() >= since && record.playerId().equals(playerId)) {
+                if (window.size() == limit) {
+                    window.removeFirst();
+                }
+                window.addLast(record);
+            }
+        }
+
+        while (!window.isEmpty()) {
+            found.addLast(window.removeLast());
+        }
+    }
+
+    /**
+     * Sealed segments, oldest first
+     *
+     * @return
+     */
+    private List<Segment> sealedSegments() {
+        List<Segment> segments = new ArrayList<>();
+        File[] indexes = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(INDEX_SUFFIX));
+        if (indexes == null) {
+            return segments;
+        }
+
+        for (File index : indexes) {
+            String base = index.getName().substring(0, index.getName().length() - INDEX_SUFFIX.length());
+            try {
+                long started = Long.parseLong(base.substring(PREFIX.length()));
+                segments.add(new Segment(started, new File(directory, base + SEALED_SUFFIX), index));
+            } catch (NumberFormatException e) {
+                // Not one of ours
+            }
+        }
+        segments.sort(Comparator.comparingLong(Segment::started));
+
+        return segments;
+    }
+
+    private static void writeRecord(DataOutputStream out, AuditRecord record) throws IOException {
+        out.writeLong(record.timestamp());
+        out.writeLong(record.playerId().getMostSignificantBits());
+        out.writeLong(record.playerId().getLeastSignificantBits());
+        out.writeUTF(record.phrase());
+        out.writeUTF(record.output());
+    }
+
+    private static boolean readHeader(DataInputStream in) throws IOException {
+        try {
+            return in.readInt() == MAGIC && in.readShort() == VERSION;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Read the next record
+     *
+     * @param in
+     * @return Null at the end of the segment, or at a record cut short by a crash
+     * @throws IOException
+     */
+    private static AuditRecord readRecord(DataInputStream in) throws IOException {
+        try {
+            long timestamp = in.readLong();
+            UUID playerId = new UUID(in.readLong(), in.readLong());
+            return new AuditRecord(timestamp, playerId, in.readUTF(), in.readUTF());
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private record Segment(long started, File data, File index) {
+    }
+}
@@ -0,0 +1,14 @@
+package com.autcraft.aac.audit;
+
+import java.util.UUID;
+
+/**
+ * One phrase sent through the panel
+ *
+ * @param timestamp Milliseconds since the epoch
+ * @param playerId
+ * @param phrase    Key of the panel option
+ * @param output    What was sent to chat
+ */
+public record AuditRecord(long timestamp, UUID playerId, String phrase, String output) {
+}
@@ -0,0 +1,83 @@
+package com.autcraft.aac.audit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer.
+ * Each slot has a sequence number that says whether it is free to write or ready to read,
+ * so producers only compete on one compare-and-set and never wait on the consumer.
+ *
+ * @param <T>
+ */
+final class RingBuffer<T> {
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<T> items;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // Only touched by the consumer
+
+    /**
+     * @param capacity Rounded up to a power of two
+     */
+    RingBuffer(int capacity) {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = this.capacity - 1;
+        this.items = new AtomicReferenceArray<>(this.capacity);
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add an item, from any thread
+     *
+     * @param item
+     * @return False if the buffer is full
+     */
+    boolean offer(T item) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    items.set(index, item);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                // The consumer hasn't freed this slot yet
+                return false;
+            }
+            // Otherwise another producer took the slot first, try the next one
+        }
+    }
+
+    /**
+     * Take the oldest item. Only called from the consumer thread.
+     *
+     * @return Null if the buffer is empty
+     */
+    T poll() {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+
+        T item = items.get(index);
+        items.set(index, null);
+        sequences.set(index, head + capacity);
+        head++;
+
+        return item;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,148 @@
+package com.autcraft.aac.audit;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Small index written next to each sealed audit segment: the time range of the segment,
+ * and for every player in it how many records they have and their first and last timestamps.
+ * Players are sorted by UUID and the file is memory-mapped, so finding a player is a binary search
+ * and a history query only decompresses the segments that can contain an answer.
+ */
+final class SegmentIndex {
+    private static final int MAGIC = 0x41414349; // "AACI"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 2 + 8 + 8 + 4 + 4;
+    private static final int ENTRY_SIZE = 8 + 8 + 4 + 8 + 8;
+
+    private final MappedByteBuffer buffer;
+    private final long firstTimestamp;
+    private final long lastTimestamp;
+    private final int recordCount;
+    private final int playerCount;
+
+    private SegmentIndex(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION) {
+            throw new IOException("Not an AAC audit index");
+        }
+        this.firstTimestamp = buffer.getLong(6);
+        this.lastTimestamp = buffer.getLong(14);
+        this.recordCount = buffer.getInt(22);
+        this.playerCount = buffer.getInt(26);
+        if (buffer.capacity() < HEADER_SIZE + (long) playerCount * ENTRY_SIZE) {
+            throw new IOException("Truncated AAC audit index");
+        }
+    }
+
+    /**
+     * Map an index file into memory
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    static SegmentIndex open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new SegmentIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Write an index, replacing the file in one step so a half written index is never read
+     *
+     * @param file
+     * @param players Sorted by UUID
+     * @param firstTimestamp
+     * @param lastTimestamp
+     * @param recordCount
+     * @throws IOException
+     */
+    static void write(File file, Map<UUID, PlayerRange> players, long firstTimestamp, long lastTimestamp, int recordCount) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(firstTimestamp);
+            out.writeLong(lastTimestamp);
+            out.writeInt(recordCount);
+            out.writeInt(players.size());
+            for (Map.Entry<UUID, PlayerRange> entry : players.entrySet()) {
+                out.writeLong(entry.getKey().getMostSignificantBits());
+                out.writeLong(entry.getKey().getLeastSignificantBits());
+                out.writeInt(entry.getValue().count);
+                out.writeLong(entry.getValue().first);
+                out.writeLong(entry.getValue().last);
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * The player's records in this segment
+     *
+     * @param playerId
+     * @return Null if the player has no records in this segment
+     */
+    PlayerRange find(UUID playerId) {
+        int low = 0;
+        int high = playerCount - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int offset = HEADER_SIZE + middle * ENTRY_SIZE;
+            int compared = new UUID(buffer.getLong(offset), buffer.getLong(offset + 8)).compareTo(playerId);
+
+            if (compared < 0) {
+                low = middle + 1;
+            } else if (compared > 0) {
+                high = middle - 1;
+            } else {
+                PlayerRange range = new PlayerRange(buffer.getLong(offset + 20));
+                range.count = buffer.getInt(offset + 16);
+                range.last = buffer.getLong(offset + 28);
+                return range;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Count and time range of one player's records in a segment
+     */
+    static final class PlayerRange {
+        int count;
+        long first;
+        long last;
+
+        PlayerRange(long first) {
+            this.first = first;
+            this.last = first;
+        }
+
+        void add(long timestamp) {
+            count++;
+            first = Math.min(first, timestamp);
+            last = Math.max(last, timestamp);
+        }
+    }
+}
@@ -1,9 +1,19 @@
 package com.autcraft.aac.commands;
 
 import com.autcraft.aac.AAC;
+import com.autcraft.aac.audit.AuditLog;
+import com.autcraft.aac.audit.AuditRecord;
+import com.autcraft.aac.metrics.Counter;
+import com.autcraft.aac.metrics.Gauge;
+import com.autcraft.aac.metrics.Histogram;
+import com.autcraft.aac.metrics.Metrics;
 import com.autcraft.aac.objects.InventoryGUI;
+import com.autcraft.aac.objects.PanelDiff;
+import com.autcraft.aac.profiles.LookupCache;
+import com.autcraft.aac.profiles.ProfileCache;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.TextColor;
+import org.bukkit.OfflinePlayer;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
@@ -12,11 +22,24 @@ import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletionException;
 
 public class MainCommand implements CommandExecutor, TabCompleter {
+    private static final DateTimeFormatter HISTORY_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
     AAC plugin;
 
     public MainCommand(AAC plugin){
@@ -30,7 +53,7 @@ public class MainCommand implements CommandExecutor, TabCompleter {
         if( args.length == 0 ){
             // Error: Invalid permission
             if( !commandSender.hasPermission("aac.help") ) {
-                commandSender.sendMessage(plugin.errorMessage("error_no_permission"));
+                commandSender.sendMessage(plugin.errorMessage(commandSender, "error_no_permission"));
                 return true;
             }
 
@@ -43,14 +66,220 @@ public class MainCommand implements CommandExecutor, TabCompleter {
         if( args[0].equalsIgnoreCase("reload") ){
             // Error: Invalid permission
             if( !commandSender.hasPermission("aac.reload") ) {
-                commandSender.sendMessage(plugin.errorMessage("error_no_permission"));
+                commandSender.sendMessage(plugin.errorMessage(commandSender, "error_no_permission"));
+                return true;
+            }
+
+            // reload all the things, then let the sender know once the new panel is live and what changed in it
+            String reloadText = plugin.getConfig().getString("settings.reloadtext");
+            plugin.reload().whenComplete((compiled, throwable) -> plugin.getTaskScheduler().runForSender(commandSender, () -> {
+                // A broken config leaves the current panel in place
+                if( throwable != null ){
+                    Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+                    HashMap<String, String> replacements = new HashMap<>();
+                    replacements.put("{ERROR}", "" + cause.getMessage());
+                    commandSender.sendMessage(plugin.errorMessage(commandSender, "error_reload_failed", replacements));
+                    return;
+                }
+
+                commandSender.sendMessage(Component.text(reloadText).color(TextColor.color(60, 180, 180)));
+
+                // Another reload went live after this one, so what this one changed no longer applies
+                if( compiled == null )
+                    return;
+
+                PanelDiff diff = compiled.getDiff();
+                HashMap<String, String> replacements = new HashMap<>();
+                replacements.put("{ADDED}", "" + diff.getAdded().size());
+                replacements.put("{CHANGED}", "" + diff.getChanged().size());
+                replacements.put("{REMOVED}", "" + diff.getRemoved().size());
+                replacements.put("{REUSED}", "" + diff.getReused());
+                commandSender.sendMessage(plugin.infoMessage(commandSender, "reload_diff", replacements));
+            }));
+            return true;
+        }
+
+
+        // Show statistics for the player head cache, or purge it
+        if( args[0].equalsIgnoreCase("cache") ){
+            // Error: Invalid permission
+            if( !commandSender.hasPermission("aac.cache") ) {
+                commandSender.sendMessage(plugin.errorMessage(commandSender, "error_no_permission"));
+                return true;
+            }
+
+            ProfileCache profileCache = plugin.getProfileCache();
+
+            if( args.length > 1 && args[1].equalsIgnoreCase("purge") ){
+                plugin.getTaskScheduler().runAsync(() -> {
+                    profileCache.purge();
+                    plugin.getProfileLookupCache().clear();
+                    commandSender.sendMessage(plugin.infoMessage(commandSender, "success_cache_purged", new HashMap<>()));
+                });
+                return true;
+            }
+
+            HashMap<String, String> replacements = new HashMap<>();
+            replacements.put("{NAMES}", "" + profileCache.getNameCount());
+            replacements.put("{TEXTURES}", "" + profileCache.getTextureCount());
+            replacements.put("{HITS}", "" + profileCache.getHits());
+            replacements.put("{STALE}", "" + profileCache.getStaleHits());
+            replacements.put("{MISSES}", "" + profileCache.getMisses());
+            replacements.put("{KILOBYTES}", "" + profileCache.getFileSize() / 1024);
+
+            LookupCache<String, String> lookupCache = plugin.getProfileLookupCache();
+            replacements.put("{MEMORY_ENTRIES}", "" + lookupCache.size());
+            replacements.put("{MEMORY_HITS}", "" + lookupCache.getHits());
+            replacements.put("{MEMORY_NOT_FOUND}", "" + lookupCache.getNegativeHits());
+            replacements.put("{MEMORY_MISSES}", "" + lookupCache.getMisses());
+            replacements.put("{MEMORY_SHARED}", "" + lookupCache.getCoalesced());
+            replacements.put("{MEMORY_IN_FLIGHT}", "" + lookupCache.getInFlight());
+
+            commandSender.sendMessage(plugin.infoMessage(commandSender, "cache_stats", replacements));
+            return true;
+        }
+
+
+        // Show timings and counters for the panel
+        if( args[0].equalsIgnoreCase("stats") ){
+            // Error: Invalid permission
+            if( !commandSender.hasPermission("aac.stats") ) {
+                commandSender.sendMessage(plugin.errorMessage(commandSender, "error_no_permission"));
                 return true;
             }
 
-            // reload all the things
-            plugin.reload();
+            Metrics metrics = plugin.getMetrics();
+            commandSender.sendMessage(plugin.infoMessage(commandSender, "stats_header", new HashMap<>()));
+
+            for( Histogram histogram : metrics.getHistograms() ){
+                HashMap<String, String> replacements = new HashMap<>();
+                replacements.put("{NAME}", histogram.getName());
+                replacements.put("{COUNT}", "" + histogram.getCount());
+                replacements.put("{MEAN}", String.format("%.3f", histogram.getMeanMillis()));
+                replacements.put("{P50}", String.format("%.3f", histogram.getPercentileMillis(0.5)));
+                replacements.put("{P99}", String.format("%.3f", histogram.getPercentileMillis(0.99)));
+                commandSender.sendMessage(plugin.infoMessage(commandSender, "stats_timer", replacements));
+            }
+
+            for( Counter counter : metrics.getCounters() ){
+                HashMap<String, String> replacements = new HashMap<>();
+                replacements.put("{NAME}", counter.getName());
+                replacements.put("{VALUE}", "" + counter.get());
+                commandSender.sendMessage(plugin.infoMessage(commandSender, "stats_value", replacements));
+            }
 
-            commandSender.sendMessage(Component.text(plugin.getConfig().getString("settings.reloadtext")).color(TextColor.color(60, 180, 180)));
+            for( Gauge gauge : metrics.getGauges() ){
+                HashMap<String, String> replacements = new HashMap<>();
+                replacements.put("{NAME}", gauge.getName());
+                replacements.put("{VALUE}", "" + gauge.get());
+                commandSender.sendMessage(plugin.infoMessage(commandSender, "stats_value", replacements));
+            }
+            return true;
+        }
+
+
+        // Show the phrases a player has sent, newest first
+        if( args[0].equalsIgnoreCase("history") ){
+            // Error: Invalid permission
+            if( !commandSender.hasPermission("aac.history") ) {
+                commandSender.sendMessage(plugin.errorMessage(commandSender, "error_no_permission"));
+                return true;
+            }
+
+            AuditLog auditLog = plugin.getAuditLog();
+            if( auditLog == null ){
+                commandSender.sendMessage(plugin.errorMessage(commandSender, "error_audit_disabled"));
+                return true;
+            }
+
+            // Error: /aac history command ran but no player provided, or a time that can't be read
+            long since = args.length > 2 ? parseSince(args[2]) : 0;
+            if( args.length == 1 || since < 0 ){
+                commandSender.sendMessage(plugin.errorMessage(commandSender, "error_history_usage"));
+                return true;
+            }
+
+            // Players who are offline are found from the server's user cache
+            UUID playerId = null;
+            String playerName = args[1];
+            Player online = plugin.getServer().getPlayerExact(args[1]);
+            if( online != null ){
+                playerId = online.getUniqueId();
+                playerName = online.getName();
+            }
+            else {
+                OfflinePlayer offline = plugin.getServer().getOfflinePlayerIfCached(args[1]);
+                if( offline != null ){
+                    playerId = offline.getUniqueId();
+                    playerName = offline.getName() != null ? offline.getName() : args[1];
+                }
+            }
+
+            // Error: /aac history <player> but the player has never been on the server
+            if( playerId == null ){
+                commandSender.sendMessage(plugin.errorMessage(commandSender, "error_player_unknown"));
+                return true;
+            }
+
+            // Read the log in the background
+            UUID historyPlayerId = playerId;
+            HashMap<String, String> playerReplacement = new HashMap<>();
+            playerReplacement.put("{PLAYER}", playerName);
+            int limit = plugin.getConfig().getInt("audit.history_limit", 10);
+            plugin.getTaskScheduler().runAsync(() -> {
+                List<AuditRecord> history;
+                try {
+                    history = auditLog.history(historyPlayerId, since, limit);
+                } catch (IOException e) {
+                    HashMap<String, String> replacements = new HashMap<>();
+                    replacements.put("{ERROR}", "" + e.getMessage());
+                    commandSender.sendMessage(plugin.errorMessage(commandSender, "error_history_failed", replacements));
+                    return;
+                }
+
+                if( history.isEmpty() ){
+                    commandSender.sendMessage(plugin.infoMessage(commandSender, "history_empty", playerReplacement));
+                    return;
+                }
+
+                commandSender.sendMessage(plugin.infoMessage(commandSender, "history_header", playerReplacement));
+                for( AuditRecord record : history ){
+                    HashMap<String, String> replacements = new HashMap<>();
+                    replacements.put("{TIME}", HISTORY_TIME.format(Instant.ofEpochMilli(record.timestamp())));
+                    replacements.put("{PHRASE}", record.phrase());
+                    replacements.put("{OUTPUT}", record.output());
+                    commandSender.sendMessage(plugin.infoMessage(commandSender, "history_line", replacements));
+                }
+            });
+            return true;
+        }
+
+
+        // Find phrases in the panel and show them as a page of their own
+        if( args[0].equalsIgnoreCase("search") ){
+            // Error: Invalid permission
+            if( !commandSender.hasPermission("aac.search") ) {
+                commandSender.sendMessage(plugin.errorMessage(commandSender, "error_no_permission"));
+                return true;
+            }
+
+            if( !(commandSender instanceof Player player) ){
+                commandSender.sendMessage(plugin.errorMessage(commandSender, "error_no_console"));
+                return true;
+            }
+
+            if( !plugin.getConfig().getBoolean("search.enabled", true) ){
+                commandSender.sendMessage(plugin.errorMessage(commandSender, "error_search_disabled"));
+                return true;
+            }
+
+            String query = String.join(" ", Arrays.copyOfRange(args, 1, args.length)).trim();
+            if( query.isEmpty() ){
+                commandSender.sendMessage(plugin.errorMessage(commandSender, "error_search_usage"));
+                return true;
+            }
+
+            plugin.getInventoryGUI().search(player, query);
             return true;
         }
 
@@ -59,7 +288,7 @@ public class MainCommand implements CommandExecutor, TabCompleter {
         if( args[0].equalsIgnoreCase("get") ){
             // Error: Invalid permission
             if( !commandSender.hasPermission("aac.get") ){
-                commandSender.sendMessage(plugin.errorMessage("error_no_permission"));
+                commandSender.sendMessage(plugin.errorMessage(commandSender, "error_no_permission"));
                 return true;
             }
 
@@ -69,11 +298,11 @@ public class MainCommand implements CommandExecutor, TabCompleter {
                 InventoryGUI inventoryGUI = plugin.getInventoryGUI();
 
                 // Put the item into the player's inventory that will trigger the AAC GUI
-                player.getInventory().addItem(inventoryGUI.getTool());
+                plugin.getTaskScheduler().runFor(player, () -> player.getInventory().addItem(inventoryGUI.getTool()));
                 plugin.debug("Gave AAC tool to " + player.getName());
             }
             else {
-                commandSender.sendMessage(plugin.errorMessage("error_no_console"));
+                commandSender.sendMessage(plugin.errorMessage(commandSender, "error_no_console"));
                 return true;
             }
         }
@@ -82,19 +311,19 @@ public class MainCommand implements CommandExecutor, TabCompleter {
         if( args[0].equalsIgnoreCase("give") ){
             // Error: Invalid permission
             if( !commandSender.hasPermission("aac.reload") ) {
-                commandSender.sendMessage(plugin.errorMessage("error_no_permission"));
+                commandSender.sendMessage(plugin.errorMessage(commandSender, "error_no_permission"));
                 return true;
             }
 
             // Error: /aac give command ran but no player provided.
             if( args.length == 1 ){
-                commandSender.sendMessage(plugin.errorMessage("error_player_not_provided"));
+                commandSender.sendMessage(plugin.errorMessage(commandSender, "error_player_not_provided"));
                 return true;
             }
 
             // Error: /aac give <player> command ran but player is not online
             if( plugin.getServer().getPlayer(args[1]) == null ){
-                commandSender.sendMessage(plugin.errorMessage("error_player_not_online"));
+                commandSender.sendMessage(plugin.errorMessage(commandSender, "error_player_not_online"));
                 return true;
             }
 
@@ -102,13 +331,43 @@ public class MainCommand implements CommandExecutor, TabCompleter {
             Player player = plugin.getServer().getPlayer(args[1]);
             InventoryGUI inventoryGUI = plugin.getInventoryGUI();
 
-            player.getInventory().addItem(inventoryGUI.getTool());
+            // The player may be on another region's thread than whoever ran the command
+            plugin.getTaskScheduler().runFor(player, () -> player.getInventory().addItem(inventoryGUI.getTool()));
 
-            commandSender.sendMessage(Component.text(plugin.getString("success_tool_given_to_player")).color(TextColor.color(60, 180, 180)));
+            commandSender.sendMessage(Component.text(plugin.getString(commandSender, "success_tool_given_to_player")).color(TextColor.color(60, 180, 180)));
         }
         return false;
     }
 
+    /**
+     * Read the start of a history search, either a time ago such as 30m, 12h, 7d or 4w, or a date such as 2024-01-31
+     *
+     * @param since
+     * @return Milliseconds since the epoch, or -1 if it can't be read
+     */
+    private long parseSince(String since){
+        try {
+            if( since.matches("\\d+[smhdw]") ){
+                long amount = Long.parseLong(since.substring(0, since.length() - 1));
+                TimeUnit unit = switch (since.charAt(since.length() - 1)) {
+                    case 's' -> TimeUnit.SECONDS;
+                    case 'm' -> TimeUnit.MINUTES;
+                    case 'h' -> TimeUnit.HOURS;
+                    default -> TimeUnit.DAYS;
+                };
+                long millis = unit.toMillis(amount);
+                if( since.endsWith("w") )
+                    millis *= 7;
+
+                return Math.max(0, System.currentTimeMillis() - millis);
+            }
+
+            return LocalDate.parse(since).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (NumberFormatException | DateTimeParseException e) {
+            return -1;
+        }
+    }
+
     @Override
     public @Nullable List<String> onTabComplete(@NotNull CommandSender commandSender, @NotNull Command command, @NotNull String s, @NotNull String[] args) {
         List<String> options = new ArrayList<>();
@@ -116,6 +375,21 @@ public class MainCommand implements CommandExecutor, TabCompleter {
         if( args.length == 1 ){
             options.add("get");
             options.add("reload");
+            if( commandSender.hasPermission("aac.cache") )
+                options.add("cache");
+            if( commandSender.hasPermission("aac.stats") )
+                options.add("stats");
+            if( commandSender.hasPermission("aac.history") )
+                options.add("history");
+            if( commandSender.hasPermission("aac.search") )
+                options.add("search");
+        }
+        else if( args.length == 2 && args[0].equalsIgnoreCase("history") ){
+            for( Player player : plugin.getServer().getOnlinePlayers() )
+                options.add(player.getName());
+        }
+        else if( args.length == 2 && args[0].equalsIgnoreCase("cache") ){
+            options.add("purge");
         }
         Collections.sort(options);
         if(!options.isEmpty())
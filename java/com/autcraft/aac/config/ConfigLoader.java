@@ -0,0 +1,106 @@
+package com.autcraft.aac.config;
+
+import org.bukkit.configuration.Configuration;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * Reads and checks config.yml. Meant to run off the main thread, so a reload never touches the disk on a server thread.
+ * Nothing is returned unless the whole file parses, so a broken save can't replace a working config.
+ */
+public class ConfigLoader {
+    private final File file;
+    private final Configuration defaults;
+    private byte[] lastLoaded;
+
+    /**
+     * @param file
+     * @param defaults The config.yml bundled with the plugin, for any settings missing from the file
+     */
+    public ConfigLoader(File file, Configuration defaults) {
+        this.file = file;
+        this.defaults = defaults;
+    }
+
+    /**
+     * Read, parse and check the config file
+     *
+     * @param onlyIfChanged Return null if the file is exactly the same as the last time it was loaded
+     * @return The config and the hash of the file it was read from
+     * @throws IOException                   If the file could not be read
+     * @throws InvalidConfigurationException If the file is not valid YAML or is missing the panel
+     */
+    public synchronized Loaded load(boolean onlyIfChanged) throws IOException, InvalidConfigurationException {
+        byte[] contents = Files.readAllBytes(file.toPath());
+        if (onlyIfChanged && Arrays.equals(contents, lastLoaded)) {
+            return null;
+        }
+
+        YamlConfiguration config = new YamlConfiguration();
+        config.loadFromString(new String(contents, StandardCharsets.UTF_8));
+        if (defaults != null) {
+            config.setDefaults(defaults);
+        }
+        validate(config);
+
+        lastLoaded = contents;
+        return new Loaded(config, hash(contents));
+    }
+
+    /**
+     * SHA-256 of the config file as it is on disk now
+     *
+     * @return
+     * @throws IOException
+     */
+    public String hash() throws IOException {
+        return hash(Files.readAllBytes(file.toPath()));
+    }
+
+    private static String hash(byte[] contents) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(contents));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java runtime has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reject configs that would leave the panel empty or broken.
+     * Problems with single panel options are not fatal, those options are skipped when the panel is compiled.
+     *
+     * @param config
+     * @throws InvalidConfigurationException
+     */
+    private void validate(FileConfiguration config) throws InvalidConfigurationException {
+        if (!config.isConfigurationSection("panel")) {
+            throw new InvalidConfigurationException("The panel section is missing");
+        }
+        if (config.contains("strings") && !config.isConfigurationSection("strings")) {
+            throw new InvalidConfigurationException("The strings section is not a list of strings");
+        }
+        if (config.contains("tool") && !config.isConfigurationSection("tool")) {
+            throw new InvalidConfigurationException("The tool section is not a section");
+        }
+    }
+
+    /**
+     * A config read from disk, with the SHA-256 of the file so that anything compiled from it can be tied to it
+     *
+     * @param config
+     * @param hash
+     */
+    public record Loaded(FileConfiguration config, String hash) {
+    }
+}
@@ -0,0 +1,127 @@
+package com.autcraft.aac.config;
+
+import com.autcraft.aac.AAC;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches config.yml and reloads the plugin when it is saved.
+ *
+ * Editors often write a file several times in a row, or write a temporary file and rename it,
+ * so a reload only starts once the file has been quiet for the debounce time.
+ * The reload itself runs in the background and only replaces the panel if the new file parses cleanly.
+ */
+public class ConfigWatcher implements Runnable {
+    private final AAC plugin;
+    private final Path file;
+    private final long debounceMillis;
+    private WatchService watchService;
+    private Thread thread;
+
+    /**
+     * @param plugin
+     * @param file
+     * @param debounceMillis How long the file has to be left alone before it is reloaded
+     */
+    public ConfigWatcher(AAC plugin, Path file, long debounceMillis) {
+        this.plugin = plugin;
+        this.file = file.toAbsolutePath();
+        this.debounceMillis = Math.max(50, debounceMillis);
+    }
+
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            return;
+        }
+
+        Path directory = file.getParent();
+        watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        thread = new Thread(this, "AAC config watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+
+        thread.interrupt();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            plugin.debug("Could not close the config watcher: " + e.getMessage());
+        }
+        thread = null;
+        watchService = null;
+    }
+
+    public synchronized boolean isRunning() {
+        return thread != null;
+    }
+
+    @Override
+    public void run() {
+        WatchService watching = watchService;
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (!isConfigEvent(watching.take())) {
+                    continue;
+                }
+
+                // Wait for the writes to settle
+                WatchKey next;
+                while ((next = watching.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                    isConfigEvent(next);
+                }
+
+                reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped
+        }
+    }
+
+    /**
+     * Consume the key's events and reset it
+     *
+     * @param key
+     * @return True if any of them were about the config file
+     */
+    private boolean isConfigEvent(WatchKey key) {
+        boolean configEvent = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            // Events were lost, so the config may have changed
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                configEvent = true;
+            } else if (event.context() instanceof Path changed && changed.getFileName().equals(file.getFileName())) {
+                configEvent = true;
+            }
+        }
+        key.reset();
+
+        return configEvent;
+    }
+
+    private void reload() {
+        plugin.reload(true).whenComplete((compiled, throwable) -> {
+            if (throwable != null) {
+                Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+                plugin.toConsole("Error: config.yml changed but could not be loaded, the current panel is still in use. " + cause.getMessage());
+            } else if (compiled != null) {
+                plugin.toConsole("config.yml changed, AAC panel reloaded: " + compiled.getDiff());
+            }
+        });
+    }
+}
@@ -0,0 +1,122 @@
+package com.autcraft.aac.config;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Translations of the panel and strings in plugins/AAC/locales, one file per language such as de.yml or pt_br.yml.
+ *
+ * A player's client locale falls back from the most specific file to the least, then to config.yml: pt_br, then pt, then config.yml.
+ * Each file only has to contain what it translates. A file with a panel replaces the whole panel, anything else is merged
+ * setting by setting, so untranslated strings keep the text from the file before it in the chain.
+ */
+public class LocaleFiles {
+    private final File directory;
+    private volatile Set<String> available = Set.of();
+
+    public LocaleFiles(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * See which locale files exist. Touches the disk, so it is meant to run off the main thread on load and reload.
+     */
+    public void refresh() {
+        Set<String> found = new HashSet<>();
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".yml"));
+        if (files != null) {
+            for (File file : files) {
+                found.add(normalize(file.getName().substring(0, file.getName().length() - 4)));
+            }
+        }
+        available = Collections.unmodifiableSet(found);
+    }
+
+    /**
+     * The most specific locale file for a client locale
+     *
+     * @param clientLocale Such as "pt_BR" or "pt-br"
+     * @return Null if there is no file for it, so config.yml is used
+     */
+    public String resolve(String clientLocale) {
+        if (clientLocale == null || available.isEmpty()) {
+            return null;
+        }
+
+        for (String locale : chain(normalize(clientLocale))) {
+            if (available.contains(locale)) {
+                return locale;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Build the config for a locale: config.yml with every file of the locale's fallback chain laid over it, least specific first
+     *
+     * @param base   config.yml
+     * @param locale As returned by {@link #resolve(String)}
+     * @return
+     * @throws IOException                   If a locale file could not be read
+     * @throws InvalidConfigurationException If a locale file is not valid YAML
+     */
+    public FileConfiguration load(FileConfiguration base, String locale) throws IOException, InvalidConfigurationException {
+        YamlConfiguration merged = new YamlConfiguration();
+        copy(base, merged);
+        if (base.getDefaults() != null) {
+            merged.setDefaults(base.getDefaults());
+        }
+
+        List<String> chain = new ArrayList<>(chain(locale));
+        Collections.reverse(chain);
+        for (String fallback : chain) {
+            if (!available.contains(fallback)) {
+                continue;
+            }
+
+            YamlConfiguration translation = new YamlConfiguration();
+            translation.load(new File(directory, fallback + ".yml"));
+
+            // A translated panel replaces the panel rather than adding to it
+            if (translation.isConfigurationSection("panel")) {
+                merged.set("panel", null);
+            }
+            copy(translation, merged);
+        }
+
+        return merged;
+    }
+
+    private static void copy(ConfigurationSection from, ConfigurationSection to) {
+        for (String key : from.getKeys(true)) {
+            if (!from.isConfigurationSection(key)) {
+                to.set(key, from.get(key));
+            }
+        }
+    }
+
+    /**
+     * The locale followed by each shorter version of it: pt_br, pt
+     *
+     * @param locale
+     * @return
+     */
+    private static List<String> chain(String locale) {
+        List<String> chain = new ArrayList<>();
+        chain.add(locale);
+        for (int separator = locale.lastIndexOf('_'); separator > 0; separator = locale.lastIndexOf('_', separator - 1)) {
+            chain.add(locale.substring(0, separator));
+        }
+        return chain;
+    }
+
+    private static String normalize(String locale) {
+        return locale.toLowerCase(Locale.ROOT).replace('-', '_');
+    }
+}
@@ -2,7 +2,10 @@ package com.autcraft.aac.events;
 
 import com.autcraft.aac.AAC;
 import com.autcraft.aac.objects.InventoryGUI;
-import net.kyori.adventure.text.Component;
+import com.autcraft.aac.objects.PageTemplate;
+import com.autcraft.aac.objects.PanelBoard;
+import com.autcraft.aac.objects.PanelHolder;
+import com.autcraft.aac.objects.PanelSession;
 import org.bukkit.Material;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
@@ -14,7 +17,9 @@ import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.inventory.ItemStack;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 public class Click implements Listener {
     AAC plugin;
@@ -30,27 +35,33 @@ public class Click implements Listener {
      */
     @EventHandler
     public void onClick(PlayerInteractEvent e) {
-        Player player = (Player) e.getPlayer();
-        InventoryGUI inventoryGUI = plugin.getInventoryGUI();
-        ItemStack item = player.getInventory().getItemInMainHand();
-        ItemStack itemOffHand = player.getInventory().getItemInOffHand();
+        // Make sure it's not a physical action, such as stepping onto a pressure plate
+        if (e.getAction() == Action.PHYSICAL) {
+            return;
+        }
 
-        // The AAC tool has to be in either the main hand or offhand to work
-        boolean validItem = inventoryGUI.isItemPanelTool(item) || inventoryGUI.isItemPanelTool(itemOffHand);
+        // The event fires once for each hand, with the item in that hand.
+        // The AAC tool has to be in either the main hand or offhand to work.
+        InventoryGUI inventoryGUI = plugin.getInventoryGUI();
+        if (!inventoryGUI.isItemPanelTool(e.getItem())) {
+            return;
+        }
 
-        // Check to see if the item in the player's hand is the AAC Tool
-        // Make sure it's not a physical action, such as stepping onto a pressure plate
-        if (validItem && e.getAction() != Action.PHYSICAL) {
-            // If, for whatever reason, the player doesn't have permission to open the gui
-            if (!player.hasPermission("aac.open")) {
-                player.sendMessage(plugin.getString("error_no_permission"));
-                return;
-            }
+        e.setCancelled(true);
+        Player player = e.getPlayer();
 
-            player.openInventory(inventoryGUI.getGUI(player, 1));
+        // Only open the GUI once per click, even when both hands fire an event or both hold a tool
+        if (!inventoryGUI.getSessions().tryOpen(player.getUniqueId(), player.getTicksLived())) {
+            return;
+        }
 
-            e.setCancelled(true);
+        // If, for whatever reason, the player doesn't have permission to open the gui
+        if (!player.hasPermission("aac.open")) {
+            player.sendMessage(plugin.getString(player, "error_no_permission"));
+            return;
         }
+
+        inventoryGUI.openPanel(player);
     }
 
     /**
@@ -61,64 +72,143 @@ public class Click implements Listener {
     @EventHandler
     public void inventoryClick(InventoryClickEvent e) {
 
-        Component inventoryTitle = e.getView().title();
-        Component GUITitle = Component.text(plugin.getConfig().getString("settings.title"));
-
         // If the inventory clicked on is the same as what was created by AAC
-        if (inventoryTitle.equals(GUITitle)) {
-            // Disable all number key interactions when this menu is open. NO SWITCHING ITEMS!
-            if (e.getClick() == ClickType.NUMBER_KEY) {
-                e.setCancelled(true);
-                return;
-            }
+        if (!(e.getView().getTopInventory().getHolder(false) instanceof PanelHolder holder)) {
+            return;
+        }
+
+        // Disable all number key interactions when this menu is open. NO SWITCHING ITEMS!
+        if (e.getClick() == ClickType.NUMBER_KEY) {
+            e.setCancelled(true);
+            return;
+        }
 
-            // If the item clicked is not null and not air
-            if (e.getCurrentItem() != null && e.getCurrentItem().getType() != Material.AIR ) {
+        // If the item clicked is not null and not air
+        if (e.getCurrentItem() == null || e.getCurrentItem().getType() == Material.AIR) {
+            return;
+        }
 
-                // Object vars
-                Player player = (Player) e.getWhoClicked();
-                ItemStack clickedItem = e.getCurrentItem();
-                InventoryGUI inventoryGUI = plugin.getInventoryGUI();
+        // Object vars
+        long start = System.nanoTime();
+        Player player = (Player) e.getWhoClicked();
+        InventoryGUI inventoryGUI = plugin.getInventoryGUI();
+        PanelBoard board = holder.getBoard();
+        PageTemplate template = holder.getTemplate();
 
-                // If the next button is clicked
-                if (inventoryGUI.isNextButton(clickedItem)) {
-                    // Open GUI for the next page
-                    player.openInventory(inventoryGUI.getGUI(player, inventoryGUI.getNextPage(clickedItem)));
+        // Look up what the slot does on the page the player is looking at
+        int action = template.getAction(e.getRawSlot());
+
+        // If the next button is clicked
+        if (action == PageTemplate.ACTION_NEXT) {
+            // Open GUI for the next page
+            inventoryGUI.open(player, board.getPath(), template.getPage() + 1);
+        }
+        // If the previous button is clicked
+        else if (action == PageTemplate.ACTION_PREVIOUS) {
+            // Open GUI for the previous page
+            inventoryGUI.open(player, board.getPath(), template.getPage() - 1);
+        }
+        // If the back button is clicked, go back to where the player opened this category from
+        else if (action == PageTemplate.ACTION_BACK) {
+            inventoryGUI.back(player, holder);
+        }
+        // If the search tile is clicked, ask what to search for
+        else if (action == PageTemplate.ACTION_SEARCH) {
+            inventoryGUI.openSearchInput(player, holder);
+        }
+        // Sentence builder tiles
+        else if (action == PageTemplate.ACTION_UNDO) {
+            holder.getSession().undoComposed();
+            inventoryGUI.showComposed(holder);
+        }
+        else if (action == PageTemplate.ACTION_CLEAR) {
+            holder.getSession().clearComposed();
+            inventoryGUI.showComposed(holder);
+        }
+        // Show the whole sentence in the player's own chat, for sentences too long to read on the tile
+        else if (action == PageTemplate.ACTION_PREVIEW) {
+            String text = inventoryGUI.getComposedText(holder);
+            player.sendMessage(text.isEmpty() ? plugin.getString(player, "error_compose_empty") : text);
+        }
+        // Send the sentence as one message, with one cooldown that also counts towards each phrase's limit
+        else if (action == PageTemplate.ACTION_SEND) {
+            List<PanelSession.ComposedPart> parts = holder.getSession().getComposed();
+            if (parts.isEmpty()) {
+                player.sendMessage(plugin.getString(player, "error_compose_empty"));
+            } else {
+                List<String> phrases = new ArrayList<>();
+                for (PanelSession.ComposedPart part : parts) {
+                    phrases.add(part.phrase());
                 }
-                // If the previous button is clicked
-                else if (inventoryGUI.isPreviousButton(clickedItem)) {
-                    // Open GUI for the previous page
-                    player.openInventory(inventoryGUI.getGUI(player, inventoryGUI.getPreviousPage(clickedItem)));
+                if (send(player, String.join("+", phrases), inventoryGUI.getComposedText(holder), phrases)) {
+                    holder.getSession().clearComposed();
+                    inventoryGUI.showComposed(holder);
                 }
-                // Otherwise, output to the chat
-                else {
-
-                    // If it has persistent data, then it has the string to output
-                    String output = inventoryGUI.getPersistentDataContainer(clickedItem);
-
-                    // So long as the output isn't blank, send it to the chat
-                    if (output != null) {
-                        if (plugin.isInCooldown(player)) {
-                            HashMap<String, String> replacements = new HashMap<>();
-                            replacements.put("{SECONDS}", "" + plugin.getCooldownRemaining(player));
-
-                            player.sendMessage(plugin.errorMessage("error_player_in_cooldown", replacements));
-                        } else {
-                            plugin.toConsole(player.getName() + " is using AAC to generate the following text in chat:");
-                            player.chat(output);
-
-                            // Message sent successfully, now apply cooldown
-                            plugin.addPlayerCooldown(player);
-                        }
-                    } else {
-                        plugin.toConsole("Error: No output was stored because the plugin could not set the persistent data for the panel option.");
-                    }
+            }
+        }
+        // If a category is clicked, open it
+        else if (action >= 0 && board.getChild(action) != null) {
+            inventoryGUI.enter(player, holder, board.getChild(action));
+        }
+        // Otherwise, output to the chat
+        else if (action >= 0) {
+
+            // The entry ID gives the string to output
+            String output = board.getOutput(action);
+
+            // In compose mode, add it to the player's sentence
+            if (output != null && inventoryGUI.isComposing(holder)) {
+                if (!inventoryGUI.compose(holder, board.getKey(action), output)) {
+                    HashMap<String, String> replacements = new HashMap<>();
+                    replacements.put("{LENGTH}", "" + inventoryGUI.getComposeMaxLength(holder));
+
+                    player.sendMessage(plugin.errorMessage(player, "error_compose_too_long", replacements));
                 }
+            }
+            // So long as the output isn't blank, send it to the chat
+            else if (output != null) {
+                String phrase = board.getKey(action);
+                send(player, phrase, output, List.of(phrase));
+            } else {
+                plugin.toConsole("Error: No output was stored for the panel option.");
+            }
+        }
+
+        e.setCancelled(true);
+        player.updateInventory();
+        plugin.getMetrics().getClickHandling().recordSince(start);
+    }
+
+    /**
+     * Send a message to the chat, if the player's cooldown and rate limits allow it
+     *
+     * @param player
+     * @param phrase  Key of the phrase for the audit log, or the keys of a composed sentence joined with "+"
+     * @param output
+     * @param phrases Every phrase in the message, to charge their rate limits and count towards the player's favourites
+     * @return False if the player has to wait
+     */
+    private boolean send(Player player, String phrase, String output, List<String> phrases) {
+        // Checking the cooldown also starts it, in one step
+        long cooldownRemaining = plugin.tryStartCooldown(player, phrases);
+
+        if (cooldownRemaining > 0) {
+            HashMap<String, String> replacements = new HashMap<>();
+            replacements.put("{SECONDS}", "" + (cooldownRemaining + 999) / 1000);
+
+            player.sendMessage(plugin.errorMessage(player, "error_player_in_cooldown", replacements));
+            return false;
+        }
 
-                e.setCancelled(true);
-                player.updateInventory();
+        plugin.audit(player, phrase, output);
+        player.chat(output);
+        if (plugin.getFavourites() != null) {
+            for (String used : phrases) {
+                plugin.getFavourites().record(player.getUniqueId(), used);
             }
         }
+        plugin.getMetrics().getPhraseSends().increment();
+        return true;
     }
 
     public boolean compareMaterials(Material material, String icon) {
@@ -0,0 +1,90 @@
+package com.autcraft.aac.events;
+
+import com.autcraft.aac.AAC;
+import com.autcraft.aac.objects.PanelSession;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.inventory.PrepareAnvilEvent;
+import org.bukkit.inventory.AnvilInventory;
+
+/**
+ * The anvil opened by the search tile: the player types their search as the item's new name and takes the result to search
+ */
+public class Search implements Listener {
+    AAC plugin;
+
+    public Search(AAC plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Renaming costs nothing, so the result can be clicked without any levels
+     *
+     * @param e
+     */
+    @EventHandler
+    public void prepareAnvil(PrepareAnvilEvent e) {
+        if (getSearchingSession(e.getView().getPlayer()) == null) {
+            return;
+        }
+
+        e.getInventory().setRepairCost(0);
+    }
+
+    /**
+     * Nothing can be taken out of the anvil. Clicking the result searches for its name.
+     *
+     * @param e
+     */
+    @EventHandler
+    public void inventoryClick(InventoryClickEvent e) {
+        PanelSession session = getSearchingSession(e.getWhoClicked());
+        if (session == null || !(e.getView().getTopInventory() instanceof AnvilInventory anvil)) {
+            return;
+        }
+
+        e.setCancelled(true);
+        if (e.getRawSlot() != 2) {
+            return;
+        }
+
+        String query = anvil.getRenameText() == null ? "" : anvil.getRenameText().trim();
+        if (query.isEmpty()) {
+            return;
+        }
+
+        // Opens the results straight away, like the panel's own buttons do.
+        // The anvil stays open if nothing is found, so the player can try other words.
+        plugin.getInventoryGUI().search((Player) e.getWhoClicked(), query);
+    }
+
+    /**
+     * Closing the anvil other than for the results ends the session.
+     * The item to rename is taken back first, since the server would otherwise hand it to the player.
+     *
+     * @param e
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void inventoryClose(InventoryCloseEvent e) {
+        PanelSession session = getSearchingSession(e.getPlayer());
+        if (session == null || !(e.getInventory() instanceof AnvilInventory)) {
+            return;
+        }
+
+        e.getInventory().clear();
+        session.setSearching(false);
+        if (e.getReason() != InventoryCloseEvent.Reason.OPEN_NEW || !session.isOpening()) {
+            plugin.getInventoryGUI().getSessions().close(e.getPlayer().getUniqueId());
+        }
+    }
+
+    private PanelSession getSearchingSession(HumanEntity player) {
+        PanelSession session = plugin.getInventoryGUI().getSessions().get(player.getUniqueId());
+        return session != null && session.isSearching() ? session : null;
+    }
+}
@@ -0,0 +1,65 @@
+package com.autcraft.aac.events;
+
+import com.autcraft.aac.AAC;
+import com.autcraft.aac.objects.PanelHolder;
+import com.autcraft.aac.ratelimit.SharedCooldowns;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.UUID;
+
+public class Session implements Listener {
+    AAC plugin;
+
+    public Session(AAC plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * End the player's session when they close the panel
+     *
+     * @param e
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void inventoryClose(InventoryCloseEvent e) {
+        if (!(e.getInventory().getHolder(false) instanceof PanelHolder holder)) {
+            return;
+        }
+
+        // Changing pages closes the old page to open the new one. The session carries on.
+        // Another plugin opening its own inventory over the panel closes it like any other close.
+        if (e.getReason() == InventoryCloseEvent.Reason.OPEN_NEW && holder.getSession().isOpening()) {
+            return;
+        }
+
+        plugin.getInventoryGUI().getSessions().close(e.getPlayer().getUniqueId());
+    }
+
+    /**
+     * Pick up the cooldowns the player had on other servers behind the proxy
+     *
+     * @param e
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void playerJoin(PlayerJoinEvent e) {
+        SharedCooldowns sharedCooldowns = plugin.getSharedCooldowns();
+        if (sharedCooldowns != null) {
+            UUID playerId = e.getPlayer().getUniqueId();
+            plugin.getTaskScheduler().runAsync(() -> sharedCooldowns.load(playerId));
+        }
+    }
+
+    /**
+     * Make sure no session is left behind when the player leaves
+     *
+     * @param e
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void playerQuit(PlayerQuitEvent e) {
+        plugin.getInventoryGUI().getSessions().forget(e.getPlayer().getUniqueId());
+    }
+}
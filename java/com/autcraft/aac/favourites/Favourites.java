@@ -0,0 +1,130 @@
+package com.autcraft.aac.favourites;
+
+import com.autcraft.aac.AAC;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Which phrases each player uses most, for their personal favourites page.
+ * Usage is counted in memory as phrases are sent and saved to plugins/AAC/favourites.dat in the background.
+ */
+public class Favourites {
+    private static final int MAGIC = 0x41414346; // "AACF"
+    private static final byte VERSION = 1;
+
+    AAC plugin;
+
+    private final File file;
+    private final int capacity;
+    private final Map<UUID, PhraseUsage> players = new ConcurrentHashMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    /**
+     * @param plugin
+     * @param file
+     * @param capacity Most phrases tracked for each player
+     */
+    public Favourites(AAC plugin, File file, int capacity) {
+        this.plugin = plugin;
+        this.file = file;
+        this.capacity = Math.max(1, capacity);
+
+        load();
+    }
+
+    /**
+     * Count one use of the phrase by the player
+     *
+     * @param playerId
+     * @param phrase
+     */
+    public void record(UUID playerId, String phrase) {
+        players.computeIfAbsent(playerId, id -> new PhraseUsage(capacity)).record(phrase);
+        dirty.set(true);
+    }
+
+    /**
+     * The player's most used phrases, most used first
+     *
+     * @param playerId
+     * @return Empty if the player hasn't sent anything yet
+     */
+    public String[] getTop(UUID playerId) {
+        PhraseUsage usage = players.get(playerId);
+        return usage == null ? new String[0] : usage.getTop();
+    }
+
+    /**
+     * True if the player has any favourites to show
+     *
+     * @param playerId
+     * @return
+     */
+    public boolean has(UUID playerId) {
+        PhraseUsage usage = players.get(playerId);
+        return usage != null && usage.size() > 0;
+    }
+
+    /**
+     * Write the counts to disk if anything changed since the last save. Call it off the main thread.
+     */
+    public synchronized void save() {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(players.size());
+            for (Map.Entry<UUID, PhraseUsage> entry : players.entrySet()) {
+                out.writeLong(entry.getKey().getMostSignificantBits());
+                out.writeLong(entry.getKey().getLeastSignificantBits());
+                entry.getValue().write(out);
+            }
+        } catch (IOException e) {
+            plugin.toConsole("Error: Could not save favourites. " + e.getMessage());
+            dirty.set(true);
+            return;
+        }
+
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            plugin.toConsole("Error: Could not save favourites. " + e.getMessage());
+            dirty.set(true);
+        }
+    }
+
+    private synchronized void load() {
+        if (!file.exists()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                plugin.toConsole("Favourites file " + file.getName() + " is not in a known format. Starting with no favourites.");
+                return;
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                UUID playerId = new UUID(in.readLong(), in.readLong());
+                PhraseUsage usage = new PhraseUsage(capacity);
+                usage.read(in);
+                players.put(playerId, usage);
+            }
+        } catch (IOException e) {
+            plugin.toConsole("Error reading favourites: " + e.getMessage());
+        }
+
+        plugin.debug("Favourites loaded for " + players.size() + " players.");
+    }
+}
@@ -0,0 +1,113 @@
+package com.autcraft.aac.favourites;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * One player's most used phrases, tracked with the Space-Saving algorithm.
+ *
+ * Only a fixed number of phrases are counted, in plain arrays kept sorted by count, most used first.
+ * A phrase that isn't being counted takes the place of the least used one and inherits its count,
+ * so memory stays the same whatever the size of the panel, and phrases used often always make it to the top.
+ * Since the arrays are always sorted, reading the favourites never needs a sort.
+ */
+public class PhraseUsage {
+    private final String[] phrases;
+    private final long[] counts;
+    private int size;
+
+    /**
+     * @param capacity Most phrases to keep track of
+     */
+    public PhraseUsage(int capacity) {
+        this.phrases = new String[capacity];
+        this.counts = new long[capacity];
+    }
+
+    /**
+     * Count one use of the phrase
+     *
+     * @param phrase
+     */
+    public synchronized void record(String phrase) {
+        int index = indexOf(phrase);
+
+        if (index < 0) {
+            if (size < phrases.length) {
+                // Still room for another phrase
+                index = size++;
+                phrases[index] = phrase;
+                counts[index] = 0;
+            } else {
+                // Take over the least used phrase, which is always the last one
+                index = size - 1;
+                phrases[index] = phrase;
+            }
+        }
+
+        counts[index]++;
+
+        // Move it up past any phrase it now has more uses than
+        while (index > 0 && counts[index] > counts[index - 1]) {
+            swap(index, index - 1);
+            index--;
+        }
+    }
+
+    /**
+     * The tracked phrases, most used first
+     *
+     * @return
+     */
+    public synchronized String[] getTop() {
+        return Arrays.copyOf(phrases, size);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    synchronized void write(DataOutputStream out) throws IOException {
+        out.writeShort(size);
+        for (int i = 0; i < size; i++) {
+            out.writeUTF(phrases[i]);
+            out.writeLong(counts[i]);
+        }
+    }
+
+    synchronized void read(DataInputStream in) throws IOException {
+        int stored = in.readUnsignedShort();
+        for (int i = 0; i < stored; i++) {
+            String phrase = in.readUTF();
+            long count = in.readLong();
+
+            // Kept sorted when written, so anything past the capacity is the least used
+            if (size < phrases.length) {
+                phrases[size] = phrase;
+                counts[size] = count;
+                size++;
+            }
+        }
+    }
+
+    private int indexOf(String phrase) {
+        for (int i = 0; i < size; i++) {
+            if (phrases[i].equals(phrase)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void swap(int first, int second) {
+        String phrase = phrases[first];
+        phrases[first] = phrases[second];
+        phrases[second] = phrase;
+
+        long count = counts[first];
+        counts[first] = counts[second];
+        counts[second] = count;
+    }
+}
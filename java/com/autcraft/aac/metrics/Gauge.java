@@ -0,0 +1,32 @@
+package com.autcraft.aac.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A value read when the metrics are reported, such as the panel size
+ */
+public class Gauge {
+    private final String name;
+    private final String help;
+    private final LongSupplier value;
+
+    Gauge(String name, String help, LongSupplier value) {
+        this.name = name;
+        this.help = help;
+        this.value = value;
+    }
+
+    public long get() {
+        return value.getAsLong();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    void writePrometheus(StringBuilder out) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append(' ').append(get()).append('\n');
+    }
+}
@@ -0,0 +1,100 @@
+package com.autcraft.aac.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with power of two buckets in nanoseconds.
+ * Recording is a couple of atomic increments with no locking and no allocation.
+ */
+public class Histogram {
+    // Buckets reported to Prometheus, from about 1 microsecond (2^10 ns) to about 34 seconds (2^35 ns)
+    private static final int FIRST_REPORTED = 10;
+    private static final int LAST_REPORTED = 35;
+
+    private final String name;
+    private final String help;
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    Histogram(String name, String help) {
+        this.name = name;
+        this.help = help;
+    }
+
+    /**
+     * Record the duration of something that started at startNanos, a System.nanoTime() value
+     *
+     * @param startNanos
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+
+        // Bucket i holds values below 2^i
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+        count.increment();
+        sum.add(nanos);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMeanMillis() {
+        long samples = getCount();
+        return samples == 0 ? 0 : sum.sum() / (double) samples / 1_000_000;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given quantile, in milliseconds
+     *
+     * @param quantile Between 0 and 1, e.g. 0.99
+     * @return
+     */
+    public double getPercentileMillis(double quantile) {
+        long samples = getCount();
+        if (samples == 0) {
+            return 0;
+        }
+
+        long target = (long) Math.ceil(samples * quantile);
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= target) {
+                return (1L << Math.min(i, 62)) / 1_000_000.0;
+            }
+        }
+        return Long.MAX_VALUE / 1_000_000.0;
+    }
+
+    void writePrometheus(StringBuilder out) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" histogram\n");
+
+        long cumulative = 0;
+        for (int i = 0; i <= FIRST_REPORTED; i++) {
+            cumulative += buckets.get(i);
+        }
+        for (int i = FIRST_REPORTED; i <= LAST_REPORTED; i++) {
+            if (i > FIRST_REPORTED) {
+                cumulative += buckets.get(i);
+            }
+            out.append(name).append("_bucket{le=\"").append((1L << i) / 1e9).append("\"} ").append(cumulative).append('\n');
+        }
+        out.append(name).append("_bucket{le=\"+Inf\"} ").append(getCount()).append('\n');
+        out.append(name).append("_sum ").append(sum.sum() / 1e9).append('\n');
+        out.append(name).append("_count ").append(getCount()).append('\n');
+    }
+}
@@ -0,0 +1,139 @@
+package com.autcraft.aac.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Timings, counters and gauges for the parts of AAC that run on the server's hot paths.
+ * Shown with /aac stats and optionally written to a Prometheus text file.
+ */
+public class Metrics {
+    private final List<Histogram> histograms = new ArrayList<>();
+    private final List<Counter> counters = new ArrayList<>();
+    private final List<Gauge> gauges = new ArrayList<>();
+
+    private final Histogram guiBuild = histogram("aac_gui_build_seconds", "Time to build a panel page inventory");
+    private final Histogram clickHandling = histogram("aac_click_seconds", "Time to handle a click in the panel");
+    private final Histogram reloadDuration = histogram("aac_reload_seconds", "Time to compile the panel on startup or reload");
+    private final Histogram profileLookup = histogram("aac_profile_lookup_seconds", "Time for each lookup sent to the profile service");
+    private final Histogram searches = histogram("aac_search_seconds", "Time to look up a search in the phrase index");
+
+    private final Counter opens = counter("aac_opens_total", "Panel pages opened");
+    private final Counter phraseSends = counter("aac_phrase_sends_total", "Phrases sent to chat");
+    private final Counter cooldownRejections = counter("aac_cooldown_rejections_total", "Phrases refused because of a cooldown or rate limit");
+    private final Counter headFetchFailures = counter("aac_head_fetch_failures_total", "Profile lookups that failed");
+    private final Counter auditDropped = counter("aac_audit_dropped_total", "Audit log records dropped because the writer fell behind");
+
+    public Histogram getGuiBuild() {
+        return guiBuild;
+    }
+
+    public Histogram getClickHandling() {
+        return clickHandling;
+    }
+
+    public Histogram getReloadDuration() {
+        return reloadDuration;
+    }
+
+    public Histogram getProfileLookup() {
+        return profileLookup;
+    }
+
+    public Histogram getSearches() {
+        return searches;
+    }
+
+    public Counter getOpens() {
+        return opens;
+    }
+
+    public Counter getPhraseSends() {
+        return phraseSends;
+    }
+
+    public Counter getCooldownRejections() {
+        return cooldownRejections;
+    }
+
+    public Counter getHeadFetchFailures() {
+        return headFetchFailures;
+    }
+
+    public Counter getAuditDropped() {
+        return auditDropped;
+    }
+
+    /**
+     * Register a value that is read whenever the metrics are reported
+     *
+     * @param name
+     * @param help
+     * @param value
+     */
+    public synchronized void gauge(String name, String help, LongSupplier value) {
+        gauges.add(new Gauge(name, help, value));
+    }
+
+    public List<Histogram> getHistograms() {
+        return Collections.unmodifiableList(histograms);
+    }
+
+    public List<Counter> getCounters() {
+        return Collections.unmodifiableList(counters);
+    }
+
+    public synchronized List<Gauge> getGauges() {
+        return new ArrayList<>(gauges);
+    }
+
+    /**
+     * All metrics in the Prometheus text exposition format
+     *
+     * @return
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Histogram histogram : histograms) {
+            histogram.writePrometheus(out);
+        }
+        for (Counter counter : counters) {
+            counter.writePrometheus(out);
+        }
+        for (Gauge gauge : getGauges()) {
+            gauge.writePrometheus(out);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Write the metrics to the file, replacing it in one step so scrapers never read half a file
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void writePrometheus(File file) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        Files.write(temp.toPath(), toPrometheus().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Histogram histogram(String name, String help) {
+        Histogram histogram = new Histogram(name, help);
+        histograms.add(histogram);
+        return histogram;
+    }
+
+    private Counter counter(String name, String help) {
+        Counter counter = new Counter(name, help);
+        counters.add(counter);
+        return counter;
+    }
+}
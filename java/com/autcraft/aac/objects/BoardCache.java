@@ -0,0 +1,86 @@
+package com.autcraft.aac.objects;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Category boards of one snapshot, compiled the first time someone opens them.
+ * The least recently opened boards are dropped once there are too many, and compiled again if they are needed.
+ * Players opening a board that is still being compiled share that one compile.
+ */
+final class BoardCache {
+    private final Map<String, PanelBoard> boards;
+    private final ConcurrentMap<String, CompletableFuture<PanelBoard>> compiling = new ConcurrentHashMap<>();
+
+    BoardCache(int maximumSize) {
+        this.boards = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PanelBoard> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    /**
+     * The board if it is compiled and cached, without compiling it
+     *
+     * @param path
+     * @return
+     */
+    PanelBoard getIfCached(String path) {
+        synchronized (boards) {
+            return boards.get(path);
+        }
+    }
+
+    /**
+     * The board, compiling it with the executor if it isn't cached.
+     * A cached board comes back as an already completed future.
+     *
+     * @param path
+     * @param compile  Returns null if there is no such board
+     * @param executor
+     * @return
+     */
+    CompletableFuture<PanelBoard> get(String path, Supplier<PanelBoard> compile, Executor executor) {
+        PanelBoard cached = getIfCached(path);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<PanelBoard> created = new CompletableFuture<>();
+        CompletableFuture<PanelBoard> existing = compiling.putIfAbsent(path, created);
+        if (existing != null) {
+            return existing;
+        }
+
+        executor.execute(() -> {
+            try {
+                PanelBoard board = compile.get();
+                if (board != null) {
+                    synchronized (boards) {
+                        boards.put(path, board);
+                    }
+                }
+                created.complete(board);
+            } catch (Throwable throwable) {
+                created.completeExceptionally(throwable);
+            } finally {
+                compiling.remove(path, created);
+            }
+        });
+
+        return created;
+    }
+
+    int size() {
+        synchronized (boards) {
+            return boards.size();
+        }
+    }
+}
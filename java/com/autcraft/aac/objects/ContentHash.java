@@ -0,0 +1,72 @@
+package com.autcraft.aac.objects;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 64 bit FNV-1a hash of config values, used to tell whether a part of the config changed between reloads
+ */
+final class ContentHash {
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    /**
+     * Marks content that must always be rebuilt, such as a player head whose lookup failed
+     */
+    static final long NONE = 0;
+
+    private ContentHash() {
+    }
+
+    /**
+     * Hash every value in the section, nested ones included, in key order
+     *
+     * @param section
+     * @return Never {@link #NONE}
+     */
+    static long of(ConfigurationSection section) {
+        long hash = OFFSET_BASIS;
+        if (section == null) {
+            return hash;
+        }
+
+        for (Map.Entry<String, Object> entry : new TreeMap<>(section.getValues(true)).entrySet()) {
+            if (entry.getValue() instanceof ConfigurationSection) {
+                continue;
+            }
+            hash = add(hash, entry.getKey());
+            hash = add(hash, String.valueOf(entry.getValue()));
+        }
+
+        return hash == NONE ? 1 : hash;
+    }
+
+    /**
+     * Hash several sections together
+     *
+     * @param sections
+     * @return Never {@link #NONE}
+     */
+    static long of(ConfigurationSection... sections) {
+        long hash = OFFSET_BASIS;
+        for (ConfigurationSection section : sections) {
+            hash = hash * PRIME ^ of(section);
+        }
+
+        return hash == NONE ? 1 : hash;
+    }
+
+    private static long add(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= PRIME;
+        }
+        // Separator, so that "ab" + "c" and "a" + "bc" differ
+        hash ^= 0xff;
+        hash *= PRIME;
+
+        return hash;
+    }
+}
@@ -0,0 +1,66 @@
+package com.autcraft.aac.objects;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.TextColor;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Hands out one shared instance of each distinct name, lore and player head while a panel is compiled,
+ * so that entries that look alike don't each carry their own copy.
+ */
+final class DescriptorPool {
+    private static final TextColor NAME_COLOR = TextColor.color(80, 120, 255);
+
+    private final Map<String, String> strings = new HashMap<>();
+    private final Map<String, Component> names = new HashMap<>();
+    private final Map<String, List<Component>> lore = new HashMap<>();
+    private final Map<String, ItemStack> heads = new HashMap<>();
+
+    /**
+     * @param material
+     * @param name
+     * @param lore
+     * @param output   Null for a category tile
+     * @param head     Player head from {@link #head(String, Supplier)}, or null
+     * @return
+     */
+    PhraseDescriptor describe(Material material, String name, String lore, String output, ItemStack head) {
+        String sharedName = intern(name);
+        String sharedLore = intern(lore);
+
+        return new PhraseDescriptor(
+                material,
+                sharedName,
+                sharedLore,
+                names.computeIfAbsent(sharedName, text -> Component.text(text).color(NAME_COLOR)),
+                this.lore.computeIfAbsent(sharedLore, text -> List.of(Component.text(text))),
+                output == null ? null : intern(output),
+                head);
+    }
+
+    /**
+     * The player head for a texture or player name, built only the first time it is asked for
+     *
+     * @param key   "texture:" or "player:" followed by the texture or lower case player name
+     * @param build Returns null if the head couldn't be built
+     * @return
+     */
+    ItemStack head(String key, Supplier<ItemStack> build) {
+        if (heads.containsKey(key)) {
+            return heads.get(key);
+        }
+        ItemStack head = build.get();
+        heads.put(key, head);
+        return head;
+    }
+
+    private String intern(String string) {
+        return strings.computeIfAbsent(string, s -> s);
+    }
+}
@@ -1,26 +1,51 @@
 package com.autcraft.aac.objects;
 
 import com.autcraft.aac.AAC;
-import com.autcraft.aac.CreatePlayerHead;
+import com.autcraft.aac.config.LocaleFiles;
+import com.autcraft.aac.favourites.Favourites;
 import net.kyori.adventure.text.Component;
-import net.kyori.adventure.text.format.TextColor;
-import org.bukkit.Material;
 import org.bukkit.NamespacedKey;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryView;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
-import org.bukkit.inventory.meta.SkullMeta;
 import org.bukkit.persistence.PersistentDataContainer;
 import org.bukkit.persistence.PersistentDataType;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 public class InventoryGUI {
+    public static final int INVENTORY_SIZE = 54;
+    public static final int PAGE_SIZE = 45; // Everything but the bottom row, which is kept for navigation
+    public static final int PREVIOUS_SLOT = 45;
+    public static final int NEXT_SLOT = 53;
+    public static final int BACK_SLOT = 49;
+    public static final int SEARCH_SLOT = 47;
+    // Sentence builder tiles, in the free slots between the navigation buttons
+    public static final int UNDO_SLOT = 46;
+    public static final int CLEAR_SLOT = 48;
+    public static final int PREVIEW_SLOT = 50;
+    public static final int SEND_SLOT = 52;
+    public static final int FAVOURITES_PAGE = 0; // Shown before page 1 to players who have favourites
+
     AAC plugin;
 
-    private Map<String, ItemStack> panelOptions = new HashMap<>();
-    private Map<String, String> panelTool = new HashMap<>();
+    private final AtomicReference<PanelSnapshot> snapshot = new AtomicReference<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final SessionRegistry sessions = new SessionRegistry();
+    private final LocaleFiles localeFiles;
+    private final LocaleCache locales;
+    private final PanelStore store;
+    private final SharedPanels sharedPanels;
     private NamespacedKey namespacedKeyAACTool;
     private NamespacedKey namespacedKey;
     private NamespacedKey namespacedKeyNext;
@@ -33,29 +58,217 @@ public class InventoryGUI {
         this.namespacedKey = new NamespacedKey(plugin, namespaceKey);
         this.namespacedKeyNext = new NamespacedKey(plugin, "next");
         this.namespacedKeyPrevious = new NamespacedKey(plugin, "previous");
-
-        // Dump the config.yml panel items into the hashmap
-        initializePanelOptions();
-        initializePanelTool();
+        this.localeFiles = new LocaleFiles(new File(plugin.getDataFolder(), "locales"));
+        this.locales = new LocaleCache(Math.max(1, plugin.getConfig().getInt("locales.cache_size", 4)));
+        this.store = new PanelStore(plugin, this, new File(plugin.getDataFolder(), "panel.bin"));
+        this.sharedPanels = plugin.getStateStore().isShared() ? new SharedPanels(plugin, plugin.getStateStore(), store) : null;
+
+        // Use the panel compiled on the last run if config.yml is the same
+        PanelSnapshot stored = readStoredPanel();
+        if (stored != null) {
+            publish(stored);
+            plugin.getTaskScheduler().runAsync(localeFiles::refresh);
+        } else {
+            // Otherwise serve a placeholder panel straight away. It is built without any Mojang lookups so it never blocks startup.
+            // The plugin then compiles the real panel, player heads included, in the background.
+            publish(new PanelCompiler(plugin, this, plugin.getConfig(), false).compile(generation.incrementAndGet()));
+        }
 
         plugin.debug("Inventory GUI initialized successfully");
     }
 
-    public void reload() {
-        initializePanelOptions();
-        initializePanelTool();
+    private PanelSnapshot readStoredPanel() {
+        if (!plugin.getConfig().getBoolean("settings.store_compiled_panel", true)) {
+            return null;
+        }
+
+        try {
+            long start = System.nanoTime();
+            PanelSnapshot stored = store.read(plugin.getConfig(), plugin.getConfigLoader().hash(), generation.incrementAndGet());
+            if (stored != null) {
+                plugin.debug("Stored panel loaded in " + (System.nanoTime() - start) / 1000 + " microseconds.");
+            }
+            return stored;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Compile the current config in the background and swap it in once it is done.
+     * The previous snapshot keeps serving the panel until then, and anything unchanged in the config is reused from it.
+     *
+     * @return
+     */
+    public CompletableFuture<PanelSnapshot> reload() {
+        return reload(plugin.getConfig(), null);
+    }
+
+    /**
+     * Compile the given config in the background and swap it in once it is done.
+     * Once compiled, the panel is also stored for the next start, unless some player heads couldn't be looked up.
+     * Servers sharing state use the panel compiled by whichever of them got to the config first.
+     *
+     * @param config
+     * @param configHash SHA-256 of the config file, or null to not store the panel
+     * @return The snapshot this reload compiled. It is only live if no newer reload was published before it.
+     */
+    public CompletableFuture<PanelSnapshot> reload(FileConfiguration config, String configHash) {
+        return reload(config, configHash, nextGeneration());
+    }
+
+    /**
+     * Compile the given config as the given generation. Of several reloads, the one with the highest generation stays live.
+     *
+     * @param config
+     * @param configHash        SHA-256 of the config file, or null to not store the panel
+     * @param compileGeneration From {@link #nextGeneration()}
+     * @return The snapshot this reload compiled. It is only live if no newer reload was published before it.
+     */
+    public CompletableFuture<PanelSnapshot> reload(FileConfiguration config, String configHash, long compileGeneration) {
+        PanelSnapshot previous = getSnapshot();
+
+        return CompletableFuture
+                .supplyAsync(() -> {
+                            long start = System.nanoTime();
+                            localeFiles.refresh();
+                            Supplier<PanelSnapshot> compile = () -> new PanelCompiler(plugin, this, config, true, previous).compile(compileGeneration);
+                            PanelSnapshot compiled = sharedPanels != null && configHash != null
+                                    ? sharedPanels.getOrCompile(config, configHash, compileGeneration, compile)
+                                    : compile.get();
+                            plugin.getMetrics().getReloadDuration().recordSince(start);
+                            storePanel(compiled, config, configHash);
+                            return compiled;
+                        },
+                        plugin.getTaskScheduler().async())
+                .thenApply(compiled -> {
+                    publish(compiled);
+                    // Translations are compiled again from the new config as players use them
+                    locales.invalidate();
+                    return compiled;
+                })
+                .whenComplete((compiled, throwable) -> {
+                    if (throwable != null) {
+                        plugin.toConsole("Error: Could not compile the AAC panel, keeping the previous one. " + throwable.getMessage());
+                    }
+                });
+    }
+
+    private void storePanel(PanelSnapshot compiled, FileConfiguration config, String configHash) {
+        if (configHash == null || !config.getBoolean("settings.store_compiled_panel", true) || !compiled.isComplete()) {
+            return;
+        }
+
+        try {
+            store.write(compiled, configHash);
+        } catch (IOException e) {
+            plugin.toConsole("Error: Could not store the compiled panel. " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reserve the generation for a reload, such as at the moment its config is read, so reloads go live in that order
+     *
+     * @return
+     */
+    public long nextGeneration() {
+        return generation.incrementAndGet();
+    }
+
+    /**
+     * Swap in a compiled snapshot, unless a newer compile has already been published
+     *
+     * @param compiled
+     * @return
+     */
+    private PanelSnapshot publish(PanelSnapshot compiled) {
+        return snapshot.accumulateAndGet(compiled, (current, next) ->
+                current != null && current.getGeneration() > next.getGeneration() ? current : next);
+    }
+
+    /**
+     * The snapshot currently serving the panel
+     *
+     * @return
+     */
+    public PanelSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * The snapshot for the player's language.
+     * If their translation isn't compiled yet, it starts compiling and config.yml's snapshot is used until it is done.
+     *
+     * @param player
+     * @return
+     */
+    public PanelSnapshot getSnapshot(Player player) {
+        String locale = getLocale(player);
+        if (locale == null) {
+            return getSnapshot();
+        }
+
+        PanelSnapshot cached = locales.getIfCached(locale);
+        if (cached != null) {
+            return cached;
+        }
+
+        getLocaleSnapshot(locale);
+        return getSnapshot();
+    }
+
+    /**
+     * The locale file used for the player, or null for config.yml
+     *
+     * @param player
+     * @return
+     */
+    private String getLocale(Player player) {
+        if (!plugin.getConfig().getBoolean("locales.enabled", true)) {
+            return null;
+        }
+        return localeFiles.resolve(player.getLocale());
+    }
+
+    /**
+     * Compile a translation in the background, unless it is already compiled or compiling.
+     * A translation that can't be loaded falls back to config.yml until the next reload.
+     *
+     * @param locale
+     * @return
+     */
+    private CompletableFuture<PanelSnapshot> getLocaleSnapshot(String locale) {
+        PanelSnapshot base = getSnapshot();
+
+        return locales.get(locale, previous -> {
+            try {
+                FileConfiguration config = localeFiles.load(base.getConfig(), locale);
+                return new PanelCompiler(plugin, this, config, true, previous).compile(base.getGeneration());
+            } catch (IOException | InvalidConfigurationException e) {
+                plugin.toConsole("Error: Could not load locales/" + locale + ".yml, using config.yml for it instead. " + e.getMessage());
+                return base;
+            }
+        }, plugin.getTaskScheduler().async());
+    }
+
+    public int getCompiledLocaleCount() {
+        return locales.size();
     }
 
     public String getPanelToolIcon() {
-        return this.panelTool.get("icon");
+        return getSnapshot().getPanelTool("icon");
     }
 
     public String getPanelToolName() {
-        return this.panelTool.get("name");
+        return getSnapshot().getPanelTool("name");
     }
 
     public String getPanelToolDescription() {
-        return this.panelTool.get("lore");
+        return getSnapshot().getPanelTool("lore");
+    }
+
+    public String getTitle() {
+        return getSnapshot().getTitle();
     }
 
 
@@ -66,20 +279,13 @@ public class InventoryGUI {
      * @return
      */
     public boolean isItemPanelTool(ItemStack itemStack) {
-        if (itemStack == null) {
-            return false;
-        }
-
-        ItemMeta meta = itemStack.getItemMeta();
-        if (meta == null) {
+        // Cheap checks first so that any other item is rejected without touching its metadata
+        if (itemStack == null || itemStack.getType() != getSnapshot().getToolMaterial() || !itemStack.hasItemMeta()) {
             return false;
         }
 
-        if (!meta.getPersistentDataContainer().has(this.namespacedKeyAACTool)) {
-            return false;
-        }
-
-        return meta.getPersistentDataContainer().get(this.namespacedKeyAACTool, PersistentDataType.STRING).equalsIgnoreCase("AAC_Tool");
+        String value = itemStack.getItemMeta().getPersistentDataContainer().get(this.namespacedKeyAACTool, PersistentDataType.STRING);
+        return "AAC_Tool".equalsIgnoreCase(value);
     }
 
 
@@ -101,326 +307,483 @@ public class InventoryGUI {
     }
 
     /**
-     * Set the persistent data container for the item
+     * Returns the inventory/GUI for the clickable items
      *
-     * @param itemStack
-     * @param output
+     * @param player
+     * @return
      */
-    private void SetPersistentDataContainer(ItemStack itemStack, String output) {
-        if (itemStack == null) {
-            plugin.toConsole("Failed to set output info: " + output);
-            return;
+    public Inventory getGUI(Player player, int page) {
+        long start = System.nanoTime();
+        PanelSnapshot panel = getSnapshot(player);
+        String[] favourites = getFavourites(player);
+        page = Math.max(favourites.length > 0 ? FAVOURITES_PAGE : 1, Math.min(page, panel.getPageCount()));
+
+        // Put together the player's favourites
+        if (page == FAVOURITES_PAGE) {
+            PanelBoard board = getFavouritesBoard(panel, favourites);
+            return createGUI(player, panel, board, board.getPage(1), start);
         }
-        ItemMeta meta = itemStack.getItemMeta();
-        PersistentDataContainer dataContainer = meta.getPersistentDataContainer();
 
-        meta.getPersistentDataContainer().set(this.namespacedKey, PersistentDataType.STRING, output);
-        itemStack.setItemMeta(meta);
+        // Or pick the page, rendered the first time anybody views it
+        PageTemplate template = page == 1 && favourites.length > 0 ? panel.getFirstPageAfterFavourites() : panel.getRoot().getPage(page);
+        return createGUI(player, panel, panel.getRoot(), template, start);
     }
 
     /**
-     * Iinitialize the panel items by putting the itemstack data into a map
+     * Returns the inventory/GUI for a page of a compiled board
+     *
+     * @param player
+     * @param panel
+     * @param board
+     * @param page
+     * @return
      */
-    public void initializePanelOptions() {
-        plugin.debug("Initirializing Panel from config.");
-        panelOptions.clear();
-
-        // Loop over the panel options in the config
-        for (String path : plugin.getConfig().getConfigurationSection("panel").getKeys(false)) {
-            ItemStack itemStack = null;
-            String panelItem = "panel." + path;
-            String icon = plugin.getConfig().getString(panelItem + ".icon", "");
-            String name = plugin.getConfig().getString(panelItem + ".name", "");
-            String playerName = plugin.getConfig().getString(panelItem + ".player", "");
-            String texture = plugin.getConfig().getString(panelItem + ".texture", "");
-            List<Component> lore = new ArrayList<Component>();
-            lore.add(Component.text(plugin.getConfig().getString(panelItem + ".lore", "")));
-            String output = plugin.getConfig().getString(panelItem + ".output", "");
-
-            // Get material based on config entry. If material is not found in game, skip
-            Material material = Material.getMaterial(icon.toUpperCase());
-            if (material == null) {
-                plugin.toConsole("Error in " + path + ": Material " + icon + " not found.");
-                break;
-            }
-
-            // If material is set to player_head
-            if (icon.equalsIgnoreCase("PLAYER_HEAD") && (!texture.equals("") || !playerName.equals(""))) {
+    public Inventory getGUI(Player player, PanelSnapshot panel, PanelBoard board, int page) {
+        if (board == panel.getRoot()) {
+            return getGUI(player, page);
+        }
 
-                // Prioritize texture. If they entered one, they probably want it.
-                if (!texture.isEmpty()) {
-                    // Create the player head with texture and other info
-                    CreatePlayerHead playerHead = new CreatePlayerHead();
-                    itemStack = playerHead.getSkull(UUID.randomUUID(), texture, Component.text(playerName), lore);
+        long start = System.nanoTime();
+        page = Math.max(1, Math.min(page, board.getPageCount()));
 
-                    // If something failed in retrieving the skull, rather than just break completely, give the panel a blank player head
-                    if (itemStack == null) {
-                        itemStack = new ItemStack(Material.PLAYER_HEAD, 1);
-                    }
-                }
-                // Second is player name. If one is set, get the player's currect skin file
-                else if (!playerName.isEmpty()) {
-                    // Create the player head with texture and other info
-                    CreatePlayerHead playerHead = new CreatePlayerHead();
-                    itemStack = playerHead.getSkull(playerName, lore);
-
-                    // If something failed in retrieving the skull, rather than just break completely, give the panel a blank player head
-                    if (itemStack == null) {
-                        itemStack = new ItemStack(Material.PLAYER_HEAD, 1);
-                    }
-                }
-                // If neither is set, just use the generic player head
-                else {
-                    itemStack = new ItemStack(Material.PLAYER_HEAD, 1);
-                }
-
-                // set Display and lore info
-                SkullMeta meta = (SkullMeta) itemStack.getItemMeta();
-                meta.displayName(Component.text(name).color(TextColor.color(80, 120, 255)));
-                meta.lore(lore);
-                itemStack.setItemMeta(meta);
-            }
-            // Any other material
-            else {
-                itemStack = new ItemStack(material, 1);
-                ItemMeta meta = itemStack.getItemMeta();
+        return createGUI(player, panel, board, board.getPage(page), start);
+    }
 
-                // Set display name and lore
-                meta.displayName(Component.text(name).color(TextColor.color(80, 120, 255)));
-                meta.lore(lore);
+    private Inventory createGUI(Player player, PanelSnapshot panel, PanelBoard board, PageTemplate template, long start) {
+        // Keep track of where the player is in their session
+        PanelSession session = sessions.open(player.getUniqueId());
+        session.setBoard(board.getPath());
+        session.setPage(template.getPage());
+
+        // Create the inventory and copy the page into it
+        PanelHolder holder = new PanelHolder(session, panel, board, template);
+        Inventory inventory = plugin.getServer().createInventory(holder, INVENTORY_SIZE, board.getTitle());
+        inventory.setContents(template.getContents());
+        holder.setInventory(inventory);
+        showComposed(holder);
+
+        plugin.getMetrics().getOpens().increment();
+        plugin.getMetrics().getGuiBuild().recordSince(start);
+        return inventory;
+    }
 
-                itemStack.setItemMeta(meta);
-            }
+    /**
+     * Open the panel on its first page, in the player's language.
+     * The first player to open a translation waits for it to be compiled.
+     *
+     * @param player
+     */
+    public void openPanel(Player player) {
+        String locale = getLocale(player);
+        CompletableFuture<PanelSnapshot> panel = locale == null ? CompletableFuture.completedFuture(getSnapshot()) : getLocaleSnapshot(locale);
+        if (panel.isDone()) {
+            show(player, getGUI(player, getFirstPage(player)));
+            return;
+        }
 
-            // Store the output string of the panel item for when it's clicked.
-            if (this.namespacedKey == null) {
-                plugin.debug("Warning, namespacedkey is null!");
-                break;
-            } else {
-                // Set the persistent data contain info
-                SetPersistentDataContainer(itemStack, output);
+        panel.whenComplete((compiled, throwable) -> plugin.getTaskScheduler().runFor(player, () -> {
+            if (player.isOnline()) {
+                show(player, getGUI(player, getFirstPage(player)));
             }
+        }));
+    }
 
-            // Add panel option to inventory GUI
-            panelOptions.put(path, itemStack);
+    /**
+     * Open a page of a board for the player.
+     * A category that nobody has opened since the last reload is compiled in the background first, then opened,
+     * as long as the player still has the panel open by then.
+     *
+     * @param player
+     * @param boardPath {@link PanelSession#MAIN_BOARD} or the key of a category
+     * @param page
+     */
+    public void open(Player player, String boardPath, int page) {
+        if (PanelSession.MAIN_BOARD.equals(boardPath)) {
+            show(player, getGUI(player, page));
+            return;
+        }
+        if (PanelSession.SEARCH_BOARD.equals(boardPath)) {
+            search(player, sessions.open(player.getUniqueId()).getQuery());
+            return;
         }
-    }
 
-    public void initializePanelTool() {
-        panelTool.clear();
+        PanelSnapshot panel = getSnapshot(player);
+        CompletableFuture<PanelBoard> board = getBoard(panel, boardPath);
 
-        panelTool.put("icon", plugin.getConfig().getString("tool.icon", "knowledge_book"));
-        panelTool.put("name", plugin.getConfig().getString("tool.name", "Augmentative and Alternative Communication"));
-        panelTool.put("lore", plugin.getConfig().getString("tool.lore", "Click open AAC"));
-        plugin.debug("Panel Tool Initialized.");
+        // Already compiled, open it straight away
+        if (board.isDone() && !board.isCompletedExceptionally()) {
+            openBoard(player, panel, board.join(), page);
+            return;
+        }
+
+        board.whenComplete((compiled, throwable) -> plugin.getTaskScheduler().runFor(player, () -> {
+            if (throwable != null) {
+                plugin.toConsole("Error: Could not compile AAC category " + boardPath + ". " + throwable.getMessage());
+                return;
+            }
+            // Only if the panel is still what the player is looking at, not something another plugin opened over it
+            if (player.isOnline() && sessions.get(player.getUniqueId()) != null
+                    && player.getOpenInventory().getTopInventory().getHolder(false) instanceof PanelHolder) {
+                openBoard(player, panel, compiled, page);
+            }
+        }));
     }
 
     /**
-     * Returns the inventory/GUI for the clickable items
+     * Open one of AAC's inventories, keeping the player's session across the close of the one they had open
      *
      * @param player
-     * @return
+     * @param inventory
      */
-    public Inventory getGUI(Player player, int page) {
-        int inventorySize = 54;
-        int endIndex = inventorySize - 10; // -10 because we want the bottom row for navigation so it should be left empty
-        int startIndex = page * endIndex - endIndex;
-        if (page > 1) {
-            startIndex = startIndex + 1;
+    private void show(Player player, Inventory inventory) {
+        PanelSession session = ((PanelHolder) inventory.getHolder(false)).getSession();
+        session.setOpening(true);
+        try {
+            player.openInventory(inventory);
+        } finally {
+            session.setOpening(false);
         }
-        int lastIndex = startIndex + endIndex;
+    }
 
-        ArrayList<String> sortedKeys = new ArrayList<String>(panelOptions.keySet());
-        Collections.sort(sortedKeys);
+    private CompletableFuture<PanelBoard> getBoard(PanelSnapshot panel, String boardPath) {
+        if (PanelSession.MAIN_BOARD.equals(boardPath)) {
+            return CompletableFuture.completedFuture(panel.getRoot());
+        }
 
-        String title = plugin.getConfig().getString("settings.title");
+        return panel.getBoard(boardPath,
+                () -> new PanelCompiler(plugin, this, panel.getConfig(), true).compileBoard(panel, boardPath),
+                plugin.getTaskScheduler().async());
+    }
 
-        // Create the inventory
-        Inventory inventory = plugin.getServer().createInventory(player, inventorySize, title);
+    private void openBoard(Player player, PanelSnapshot panel, PanelBoard board, int page) {
+        // The category was removed by a reload
+        if (board == null) {
+            show(player, getGUI(player, getFirstPage(player)));
+            return;
+        }
 
-        /*
-         Loop over panel options to populate inventory
-        */
-        int slot = 0;
-        int counter = 0;
+        show(player, getGUI(player, panel, board, page));
+    }
 
-        // Loop over panel to put panel items into inventory slots.
-        for (String key : sortedKeys) {
-            if (counter >= startIndex && counter <= lastIndex) {
-                inventory.setItem(slot, panelOptions.get(key));
-                slot++;
-            }
-            counter++;
-        }
+    /**
+     * Open a category from the page the player is on, remembering that page for the back button
+     *
+     * @param player
+     * @param from
+     * @param boardPath
+     */
+    public void enter(Player player, PanelHolder from, String boardPath) {
+        from.getSession().pushBreadcrumb(from.getBoard().getPath(), from.getTemplate().getPage());
+        open(player, boardPath, 1);
+    }
 
-        plugin.debug("Panel size: " + panelOptions.size() + ". Page #: " + page + ". Start Index: " + startIndex + ". Last Index: " + lastIndex);
+    /**
+     * Go back to the page the player opened the current category from
+     *
+     * @param player
+     * @param from
+     */
+    public void back(Player player, PanelHolder from) {
+        PanelSession.Breadcrumb breadcrumb = from.getSession().popBreadcrumb();
+        if (breadcrumb == null) {
+            open(player, PanelSession.MAIN_BOARD, getFirstPage(player));
+        } else {
+            open(player, breadcrumb.board(), breadcrumb.page());
+        }
+    }
 
-        // Next and previous buttons
-        // If page 1, there is no previous page.
-        if (page != 1) {
-            inventory.setItem(45, getPreviousButton(page - 1));
+    /**
+     * Ask the player for words to search for, in an anvil, remembering the page they were on for the back button
+     *
+     * @param player
+     * @param from
+     */
+    public void openSearchInput(Player player, PanelHolder from) {
+        PanelSession session = from.getSession();
+        session.pushBreadcrumb(from.getBoard().getPath(), from.getTemplate().getPage());
+        session.setSearching(true);
+
+        InventoryView view;
+        session.setOpening(true);
+        try {
+            view = player.openAnvil(null, true);
+        } finally {
+            session.setOpening(false);
         }
-        // Check for how many items there are. If more than what fits on this page, show the next page button
-        if (panelOptions.size() > lastIndex) {
-            inventory.setItem(53, getNextButton(page + 1));
+        if (view == null) {
+            session.setSearching(false);
+            return;
         }
 
-        return inventory;
+        // The anvil needs an item to rename. Its name is what the player types.
+        ItemStack input = from.getSnapshot().getSearchButton().clone();
+        ItemMeta meta = input.getItemMeta();
+        meta.displayName(Component.text(""));
+        input.setItemMeta(meta);
+        view.getTopInventory().setItem(0, input);
     }
 
-
     /**
-     * Retrieve the panel tool item to put into the player's inventory when they run the command /aac get
+     * Show the phrases matching the query, from every board of the panel.
+     * Boards that the results are on and nobody has opened yet are compiled first, in the background.
      *
-     * @return
+     * @param player
+     * @param query
      */
-    public ItemStack getTool() {
-        String displayName = panelTool.get("name");
-        List<Component> lore = new ArrayList<>();
-        lore.add(Component.text(panelTool.get("lore")));
+    public void search(Player player, String query) {
+        long start = System.nanoTime();
+        PanelSnapshot panel = getSnapshot(player);
+        PanelSession session = sessions.open(player.getUniqueId());
+        session.setQuery(query);
+
+        List<String> results = panel.getSearchIndex().search(query, PAGE_SIZE);
+        plugin.getMetrics().getSearches().recordSince(start);
+        if (results.isEmpty()) {
+            HashMap<String, String> replacements = new HashMap<>();
+            replacements.put("{QUERY}", query);
+            player.sendMessage(plugin.errorMessage(player, "search_no_results", replacements));
+            return;
+        }
+
+        // The boards the results are on
+        Map<String, CompletableFuture<PanelBoard>> boards = new LinkedHashMap<>();
+        for (String key : results) {
+            int separator = key.lastIndexOf('.');
+            String boardPath = separator < 0 ? PanelSession.MAIN_BOARD : key.substring(0, separator);
+            boards.computeIfAbsent(boardPath, path -> getBoard(panel, path));
+        }
 
-        // Get the material, if there is one. If not, default it to knowledge book.
-        Material material = Material.getMaterial(panelTool.get("icon"));
-        if (material == null)
-            material = Material.KNOWLEDGE_BOOK;
+        CompletableFuture<Void> compiled = CompletableFuture.allOf(boards.values().toArray(new CompletableFuture<?>[0]));
+        if (compiled.isDone() && !compiled.isCompletedExceptionally()) {
+            openSearchResults(player, panel, query, results, boards);
+            return;
+        }
+
+        compiled.whenComplete((ignored, throwable) -> plugin.getTaskScheduler().runFor(player, () -> {
+            if (throwable != null) {
+                plugin.toConsole("Error: Could not compile AAC categories for a search. " + throwable.getMessage());
+                return;
+            }
+            if (player.isOnline()) {
+                openSearchResults(player, panel, query, results, boards);
+            }
+        }));
+    }
 
-        // Get the item stack and set data to it.
-        ItemStack item = new ItemStack(material, 1);
-        ItemMeta meta = item.getItemMeta();
+    private void openSearchResults(Player player, PanelSnapshot panel, String query, List<String> results, Map<String, CompletableFuture<PanelBoard>> boards) {
+        ItemStack[] contents = new ItemStack[INVENTORY_SIZE];
+        int[] actions = new int[INVENTORY_SIZE];
+        Arrays.fill(actions, PageTemplate.ACTION_NONE);
+        List<String> keys = new ArrayList<>();
+        PhraseDescriptor[] entries = new PhraseDescriptor[results.size()];
+        String[] children = new String[results.size()];
+
+        for (String key : results) {
+            int separator = key.lastIndexOf('.');
+            PanelBoard board = boards.get(separator < 0 ? PanelSession.MAIN_BOARD : key.substring(0, separator)).join();
+            int entryId = board == null ? -1 : board.getEntryId(key);
+            if (entryId < 0) {
+                continue;
+            }
 
-        // Set display and lore data
-        meta.displayName(Component.text(displayName));
-        meta.lore(lore);
+            int slot = keys.size();
+            entries[slot] = board.getEntry(entryId);
+            contents[slot] = entries[slot].materialise(namespacedKey);
+            actions[slot] = slot;
+            keys.add(key);
+            children[slot] = board.getChild(entryId);
+        }
 
-        // Store persistent data as an identifier to know when this tool is being clicked
-        meta.getPersistentDataContainer().set(this.namespacedKeyAACTool, PersistentDataType.STRING, "AAC_Tool");
+        contents[BACK_SLOT] = panel.getBackButton();
+        actions[BACK_SLOT] = PageTemplate.ACTION_BACK;
+        panel.getPageRenderer().addComposeTiles(contents, actions);
 
-        item.setItemMeta(meta);
+        String title = panel.getString("search_title").replace("{QUERY}", query);
+        PanelBoard board = new PanelBoard(PanelSession.SEARCH_BOARD, title, keys, Arrays.copyOf(entries, keys.size()),
+                Arrays.copyOf(children, keys.size()), new PageTemplate(1, contents, actions));
 
-        return item;
+        show(player, createGUI(player, panel, board, board.getPage(1), System.nanoTime()));
     }
 
     /**
-     * Generate and return the Next Button item stack
+     * Whether clicking a phrase on the page adds it to the player's sentence instead of sending it
      *
+     * @param holder
      * @return
      */
-    public ItemStack getNextButton(int page) {
-        ItemStack itemStack;
-        Component displayName = Component.text(plugin.getConfig().getString("nexticon.name", "Next"));
-        String materialName = plugin.getConfig().getString("nexticon.material", "BEACON");
-        List<Component> lore = new ArrayList<>();
-        lore.add(Component.text(plugin.getConfig().getString("nexticon.lore", "Go to Next Page")));
-        String texture = plugin.getConfig().getString("nexticon.texture");
-
-        // Default check. We can't have a player head without a texture.
-        // If it is blank, reset the material to a beacon.
-        if (materialName.equalsIgnoreCase("player_head") && texture.equals("")) {
-            plugin.debug("Material is set to player head but texture is blank.");
-            materialName = "beacon";
-        }
+    public boolean isComposing(PanelHolder holder) {
+        return holder.getSnapshot().getPageRenderer().isComposing();
+    }
 
-        // Get material, if there is one
-        Material material = Material.getMaterial(materialName.toUpperCase());
+    /**
+     * Add a phrase to the player's sentence and show it on the preview tile
+     *
+     * @param holder
+     * @param phrase
+     * @param output
+     * @return False if the sentence would get longer than compose.max_length
+     */
+    public boolean compose(PanelHolder holder, String phrase, String output) {
+        boolean added = holder.getSession().compose(phrase, output, getComposeSeparator(holder), getComposeMaxLength(holder));
+        showComposed(holder);
+        return added;
+    }
 
-        // If material is set to player_head
-        if (materialName.equalsIgnoreCase("PLAYER_HEAD")) {
+    /**
+     * The player's sentence as it will be sent
+     *
+     * @param holder
+     * @return
+     */
+    public String getComposedText(PanelHolder holder) {
+        return holder.getSession().getComposedText(getComposeSeparator(holder));
+    }
 
-            // Create the player head with texture and other info
-            CreatePlayerHead playerHead = new CreatePlayerHead();
-            itemStack = playerHead.getSkull(UUID.randomUUID(), texture, displayName, lore);
+    public int getComposeMaxLength(PanelHolder holder) {
+        return Math.max(1, holder.getSnapshot().getConfig().getInt("compose.max_length", 256));
+    }
 
+    /**
+     * Show the player's sentence on the preview tile of the page they have open
+     *
+     * @param holder
+     */
+    public void showComposed(PanelHolder holder) {
+        if (holder.getTemplate().getAction(PREVIEW_SLOT) != PageTemplate.ACTION_PREVIEW) {
+            return;
         }
-        // Any other material
-        else {
-            itemStack = new ItemStack(material, 1);
-            ItemMeta meta = itemStack.getItemMeta();
-
-            meta.displayName(displayName);
-            meta.lore(lore);
 
-            itemStack.setItemMeta(meta);
+        PanelSession session = holder.getSession();
+        holder.getInventory().setItem(PREVIEW_SLOT,
+                holder.getSnapshot().getPageRenderer().renderPreview(session.getComposed(), getComposedText(holder)));
+    }
 
-        }
-        // Get the metadata to set the persistent data container with the page number to load
-        ItemMeta meta = itemStack.getItemMeta();
-        meta.getPersistentDataContainer().set(namespacedKeyNext, PersistentDataType.INTEGER, page);
-        itemStack.setItemMeta(meta);
+    private String getComposeSeparator(PanelHolder holder) {
+        return holder.getSnapshot().getConfig().getString("compose.separator", " ");
+    }
 
-        return itemStack;
+    /**
+     * The page the panel opens on: the player's favourites if they have any, otherwise page 1
+     *
+     * @param player
+     * @return
+     */
+    public int getFirstPage(Player player) {
+        Favourites favourites = plugin.getFavourites();
+        return favourites != null && favourites.has(player.getUniqueId()) ? FAVOURITES_PAGE : 1;
     }
 
+    private String[] getFavourites(Player player) {
+        Favourites favourites = plugin.getFavourites();
+        return favourites == null ? new String[0] : favourites.getTop(player.getUniqueId());
+    }
 
     /**
-     * Generate and return the Previous Button item stack
+     * Lay out the player's most used phrases, which are already in order, followed by a next button to page 1.
+     * Phrases from categories are only shown while their category is compiled.
      *
+     * @param panel
+     * @param favourites
      * @return
      */
-    public ItemStack getPreviousButton(int page) {
-        ItemStack itemStack;
-        Component displayName = Component.text(plugin.getConfig().getString("previousicon.name", "Next"));
-        String materialName = plugin.getConfig().getString("previousicon.material", "BEACON");
-        List<Component> lore = new ArrayList<>();
-        lore.add(Component.text(plugin.getConfig().getString("previousicon.lore", "Go to Next Page")));
-        String texture = plugin.getConfig().getString("previousicon.texture");
-
-        // Default check. We can't have a player head without a texture.
-        // If it is blank, reset the material to a beacon.
-        if (materialName.equalsIgnoreCase("player_head") && texture.equals("")) {
-            plugin.debug(plugin.getString("error_player_head_no_material"));
-            materialName = "beacon";
-        }
+    private PanelBoard getFavouritesBoard(PanelSnapshot panel, String[] favourites) {
+        ItemStack[] contents = new ItemStack[INVENTORY_SIZE];
+        int[] actions = new int[INVENTORY_SIZE];
+        Arrays.fill(actions, PageTemplate.ACTION_NONE);
+        List<String> keys = new ArrayList<>();
+        PhraseDescriptor[] entries = new PhraseDescriptor[Math.min(favourites.length, PAGE_SIZE)];
+
+        for (String phrase : favourites) {
+            if (keys.size() == entries.length) {
+                break;
+            }
 
-        // Get material, if there is one
-        Material material = Material.getMaterial(materialName.toUpperCase());
+            // Skip phrases that have since been removed from the panel
+            int separator = phrase.lastIndexOf('.');
+            PanelBoard board = panel.getCachedBoard(separator < 0 ? PanelSession.MAIN_BOARD : phrase.substring(0, separator));
+            int entryId = board == null ? -1 : board.getEntryId(phrase);
+            if (entryId < 0 || board.getChild(entryId) != null) {
+                continue;
+            }
 
-        // If material is set to player_head
-        if (materialName.equalsIgnoreCase("PLAYER_HEAD")) {
+            int slot = keys.size();
+            entries[slot] = board.getEntry(entryId);
+            contents[slot] = entries[slot].materialise(namespacedKey);
+            actions[slot] = slot;
+            keys.add(phrase);
+        }
 
-            // Create the player head with texture and other info
-            CreatePlayerHead playerHead = new CreatePlayerHead();
-            itemStack = playerHead.getSkull(UUID.randomUUID(), texture, displayName, lore);
+        contents[NEXT_SLOT] = panel.getFavouritesNextButton();
+        actions[NEXT_SLOT] = PageTemplate.ACTION_NEXT;
+        if (panel.getSearchButton() != null) {
+            contents[SEARCH_SLOT] = panel.getSearchButton();
+            actions[SEARCH_SLOT] = PageTemplate.ACTION_SEARCH;
         }
-        // Any other material
-        else {
-            itemStack = new ItemStack(material, 1);
-            ItemMeta meta = itemStack.getItemMeta();
+        panel.getPageRenderer().addComposeTiles(contents, actions);
 
-            meta.displayName(displayName);
-            meta.lore(lore);
+        return new PanelBoard(PanelSession.MAIN_BOARD, panel.getFavouritesTitle(), keys, Arrays.copyOf(entries, keys.size()),
+                new String[keys.size()], new PageTemplate(FAVOURITES_PAGE, contents, actions));
+    }
 
-            itemStack.setItemMeta(meta);
+    /**
+     * Open AAC panel sessions
+     *
+     * @return
+     */
+    public SessionRegistry getSessions() {
+        return sessions;
+    }
 
-            return itemStack;
-        }
+    /**
+     * Panel option keys in the order they are displayed
+     *
+     * @return
+     */
+    public List<String> getPhraseIndex() {
+        return getSnapshot().getPhraseIndex();
+    }
 
-        // Get the metadata to set the persistent data container with the page number to load
-        ItemMeta meta = itemStack.getItemMeta();
-        meta.getPersistentDataContainer().set(namespacedKeyPrevious, PersistentDataType.INTEGER, page);
-        itemStack.setItemMeta(meta);
+    /**
+     * Number of pages of the top level board
+     *
+     * @return
+     */
+    public int getPageCount() {
+        return getSnapshot().getPageCount();
+    }
 
-        return itemStack;
+    /**
+     * Number of pages currently rendered and cached, of every board
+     *
+     * @return
+     */
+    public int getCachedPageCount() {
+        return getSnapshot().getCachedPageCount();
     }
 
+
     /**
-     * Returns true or false if the persistent data exists within the item stack
+     * Retrieve the panel tool item to put into the player's inventory when they run the command /aac get
      *
-     * @param itemStack
      * @return
      */
-    public boolean isNextButton(ItemStack itemStack) {
-        return itemStack.getItemMeta().getPersistentDataContainer().has(this.namespacedKeyNext);
+    public ItemStack getTool() {
+        return getSnapshot().getTool().clone();
+    }
+
+    NamespacedKey getNamespacedKeyAACTool() {
+        return namespacedKeyAACTool;
     }
 
-    public int getNextPage(ItemStack itemStack) {
-        return itemStack.getItemMeta().getPersistentDataContainer().get(this.namespacedKeyNext, PersistentDataType.INTEGER);
+    NamespacedKey getNamespacedKey() {
+        return namespacedKey;
     }
 
-    public boolean isPreviousButton(ItemStack itemStack) {
-        return itemStack.getItemMeta().getPersistentDataContainer().has(this.namespacedKeyPrevious);
+    NamespacedKey getNamespacedKeyNext() {
+        return namespacedKeyNext;
     }
 
-    public int getPreviousPage(ItemStack itemStack) {
-        return itemStack.getItemMeta().getPersistentDataContainer().get(this.namespacedKeyPrevious, PersistentDataType.INTEGER);
+    NamespacedKey getNamespacedKeyPrevious() {
+        return namespacedKeyPrevious;
     }
 }
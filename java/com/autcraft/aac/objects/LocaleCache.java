@@ -0,0 +1,112 @@
+package com.autcraft.aac.objects;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Panels compiled for each locale, the first time a player with that locale opens AAC.
+ * Only the most recently used locales are kept, so memory follows the languages players actually use rather than every translation installed.
+ * Players of a locale that is still being compiled share that one compile.
+ */
+final class LocaleCache {
+    private final Map<String, PanelSnapshot> snapshots;
+    private final ConcurrentMap<String, CompletableFuture<PanelSnapshot>> compiling = new ConcurrentHashMap<>();
+
+    // Snapshots from before the last reload, to reuse unchanged items from when their locale is compiled again
+    private final Map<String, PanelSnapshot> stale = new HashMap<>();
+    private long epoch;
+
+    LocaleCache(int maximumSize) {
+        this.snapshots = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PanelSnapshot> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    /**
+     * The locale's snapshot if it is compiled and cached, without compiling it
+     *
+     * @param locale
+     * @return
+     */
+    PanelSnapshot getIfCached(String locale) {
+        synchronized (snapshots) {
+            return snapshots.get(locale);
+        }
+    }
+
+    /**
+     * The locale's snapshot, compiling it with the executor if it isn't cached.
+     * A cached snapshot comes back as an already completed future.
+     *
+     * @param locale
+     * @param compile  Given the locale's snapshot from before the last reload, or null
+     * @param executor
+     * @return
+     */
+    CompletableFuture<PanelSnapshot> get(String locale, Function<PanelSnapshot, PanelSnapshot> compile, Executor executor) {
+        PanelSnapshot cached = getIfCached(locale);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<PanelSnapshot> created = new CompletableFuture<>();
+        CompletableFuture<PanelSnapshot> existing = compiling.putIfAbsent(locale, created);
+        if (existing != null) {
+            return existing;
+        }
+
+        long compileEpoch;
+        PanelSnapshot previous;
+        synchronized (snapshots) {
+            compileEpoch = epoch;
+            previous = stale.remove(locale);
+        }
+
+        executor.execute(() -> {
+            try {
+                PanelSnapshot snapshot = compile.apply(previous);
+                synchronized (snapshots) {
+                    // Compiled from a config that has been reloaded since, so don't keep it
+                    if (compileEpoch == epoch) {
+                        snapshots.put(locale, snapshot);
+                    }
+                }
+                created.complete(snapshot);
+            } catch (Throwable throwable) {
+                created.completeExceptionally(throwable);
+            } finally {
+                compiling.remove(locale, created);
+            }
+        });
+
+        return created;
+    }
+
+    /**
+     * Forget every compiled locale, after a reload. Each is compiled again from the new config the next time it is used.
+     */
+    void invalidate() {
+        synchronized (snapshots) {
+            epoch++;
+            stale.clear();
+            stale.putAll(snapshots);
+            snapshots.clear();
+        }
+        compiling.clear();
+    }
+
+    int size() {
+        synchronized (snapshots) {
+            return snapshots.size();
+        }
+    }
+}
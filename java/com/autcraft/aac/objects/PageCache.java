@@ -0,0 +1,56 @@
+package com.autcraft.aac.objects;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Rendered pages of one snapshot's boards, the most recently viewed first.
+ * Pages past the limit are dropped and rendered again from their entries if they are viewed again.
+ */
+final class PageCache {
+    private final Map<PageKey, PageTemplate> pages;
+
+    PageCache(int maximumSize) {
+        this.pages = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageKey, PageTemplate> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    /**
+     * The page, rendering it if it isn't cached.
+     * Two players viewing an uncached page at the same moment may both render it, which is harmless.
+     *
+     * @param board
+     * @param page
+     * @param render
+     * @return
+     */
+    PageTemplate get(String board, int page, Supplier<PageTemplate> render) {
+        PageKey key = new PageKey(board, page);
+        synchronized (pages) {
+            PageTemplate cached = pages.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        PageTemplate rendered = render.get();
+        synchronized (pages) {
+            pages.put(key, rendered);
+        }
+        return rendered;
+    }
+
+    int size() {
+        synchronized (pages) {
+            return pages.size();
+        }
+    }
+
+    private record PageKey(String board, int page) {
+    }
+}
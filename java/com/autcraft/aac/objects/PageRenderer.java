@@ -0,0 +1,232 @@
+package com.autcraft.aac.objects;
+
+import net.kyori.adventure.text.Component;
+import org.bukkit.NamespacedKey;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.persistence.PersistentDataType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Renders the pages of a snapshot's boards from their entries, when they are first viewed.
+ * The navigation buttons are built once and only the page number is stamped on a copy for each page.
+ * The sentence builder tiles are the same on every page, apart from the preview which shows each player their own sentence.
+ */
+final class PageRenderer {
+    private final InventoryGUI inventoryGUI;
+    private final ItemStack nextButton;
+    private final ItemStack previousButton;
+    private final ItemStack backButton;
+    private final ItemStack searchButton;
+    private final ItemStack favouritesNextButton;
+    private final ItemStack undoButton;
+    private final ItemStack clearButton;
+    private final ItemStack previewButton;
+    private final ItemStack sendButton;
+
+    /**
+     * @param inventoryGUI
+     * @param nextButton
+     * @param previousButton
+     * @param backButton     Shown on every page of a category
+     * @param searchButton   Shown on every page, null if search is turned off
+     * @param undoButton     The sentence builder tiles, shown on every page. All null if compose mode is turned off.
+     * @param clearButton
+     * @param previewButton
+     * @param sendButton
+     */
+    PageRenderer(InventoryGUI inventoryGUI, ItemStack nextButton, ItemStack previousButton, ItemStack backButton, ItemStack searchButton,
+                 ItemStack undoButton, ItemStack clearButton, ItemStack previewButton, ItemStack sendButton) {
+        this.inventoryGUI = inventoryGUI;
+        this.nextButton = nextButton;
+        this.previousButton = previousButton;
+        this.backButton = backButton;
+        this.searchButton = searchButton;
+        this.favouritesNextButton = withPage(nextButton, inventoryGUI.getNamespacedKeyNext(), 1);
+        this.undoButton = undoButton;
+        this.clearButton = clearButton;
+        this.previewButton = previewButton;
+        this.sendButton = sendButton;
+    }
+
+    /**
+     * Render one page of a board, navigation buttons included
+     *
+     * @param board
+     * @param page  Starting at 1
+     * @return
+     */
+    PageTemplate render(PanelBoard board, int page) {
+        ItemStack[] contents = new ItemStack[InventoryGUI.INVENTORY_SIZE];
+        int[] actions = new int[InventoryGUI.INVENTORY_SIZE];
+        Arrays.fill(actions, PageTemplate.ACTION_NONE);
+        int pageCount = board.getPageCount();
+        int startIndex = (page - 1) * InventoryGUI.PAGE_SIZE;
+        int endIndex = Math.min(startIndex + InventoryGUI.PAGE_SIZE, board.getKeys().size());
+
+        for (int index = startIndex; index < endIndex; index++) {
+            contents[index - startIndex] = board.getEntry(index).materialise(inventoryGUI.getNamespacedKey());
+            actions[index - startIndex] = index;
+        }
+
+        // If page 1, there is no previous page.
+        // The page number is still stored on the buttons for copies of them made in creative mode.
+        if (page > 1) {
+            contents[InventoryGUI.PREVIOUS_SLOT] = withPage(previousButton, inventoryGUI.getNamespacedKeyPrevious(), page - 1);
+            actions[InventoryGUI.PREVIOUS_SLOT] = PageTemplate.ACTION_PREVIOUS;
+        }
+        // If there are more items than fit up to this page, show the next page button
+        if (page < pageCount) {
+            contents[InventoryGUI.NEXT_SLOT] = withPage(nextButton, inventoryGUI.getNamespacedKeyNext(), page + 1);
+            actions[InventoryGUI.NEXT_SLOT] = PageTemplate.ACTION_NEXT;
+        }
+
+        // Categories lead back to where the player came from
+        if (!PanelSession.MAIN_BOARD.equals(board.getPath())) {
+            contents[InventoryGUI.BACK_SLOT] = backButton;
+            actions[InventoryGUI.BACK_SLOT] = PageTemplate.ACTION_BACK;
+        }
+        if (searchButton != null) {
+            contents[InventoryGUI.SEARCH_SLOT] = searchButton;
+            actions[InventoryGUI.SEARCH_SLOT] = PageTemplate.ACTION_SEARCH;
+        }
+        addComposeTiles(contents, actions);
+
+        return new PageTemplate(page, contents, actions);
+    }
+
+    /**
+     * Put the sentence builder tiles on a page, if compose mode is turned on
+     *
+     * @param contents
+     * @param actions
+     */
+    void addComposeTiles(ItemStack[] contents, int[] actions) {
+        if (!isComposing()) {
+            return;
+        }
+
+        contents[InventoryGUI.UNDO_SLOT] = undoButton;
+        actions[InventoryGUI.UNDO_SLOT] = PageTemplate.ACTION_UNDO;
+        contents[InventoryGUI.CLEAR_SLOT] = clearButton;
+        actions[InventoryGUI.CLEAR_SLOT] = PageTemplate.ACTION_CLEAR;
+        contents[InventoryGUI.PREVIEW_SLOT] = previewButton;
+        actions[InventoryGUI.PREVIEW_SLOT] = PageTemplate.ACTION_PREVIEW;
+        contents[InventoryGUI.SEND_SLOT] = sendButton;
+        actions[InventoryGUI.SEND_SLOT] = PageTemplate.ACTION_SEND;
+    }
+
+    /**
+     * The preview tile for a player's sentence: named after the sentence so far, with a line of lore for each phrase in it
+     *
+     * @param parts
+     * @param text
+     * @return The plain preview tile if the sentence is empty
+     */
+    ItemStack renderPreview(List<PanelSession.ComposedPart> parts, String text) {
+        if (parts.isEmpty()) {
+            return previewButton;
+        }
+
+        ItemStack itemStack = previewButton.clone();
+        ItemMeta meta = itemStack.getItemMeta();
+        List<Component> lore = new ArrayList<>();
+        for (PanelSession.ComposedPart part : parts) {
+            lore.add(Component.text(part.output()));
+        }
+        meta.displayName(Component.text(text));
+        meta.lore(lore);
+        itemStack.setItemMeta(meta);
+
+        return itemStack;
+    }
+
+    /**
+     * Whether clicking a phrase adds it to a sentence instead of sending it straight away
+     *
+     * @return
+     */
+    boolean isComposing() {
+        return previewButton != null;
+    }
+
+    /**
+     * Page 1 as shown to players who have a favourites page: the same, with a previous button leading back to their favourites
+     *
+     * @param firstPage
+     * @return
+     */
+    PageTemplate renderAfterFavourites(PageTemplate firstPage) {
+        ItemStack[] contents = firstPage.getContents().clone();
+        int[] actions = new int[InventoryGUI.INVENTORY_SIZE];
+        for (int slot = 0; slot < actions.length; slot++) {
+            actions[slot] = firstPage.getAction(slot);
+        }
+
+        contents[InventoryGUI.PREVIOUS_SLOT] = withPage(previousButton, inventoryGUI.getNamespacedKeyPrevious(), InventoryGUI.FAVOURITES_PAGE);
+        actions[InventoryGUI.PREVIOUS_SLOT] = PageTemplate.ACTION_PREVIOUS;
+
+        return new PageTemplate(1, contents, actions);
+    }
+
+    ItemStack getNextButton() {
+        return nextButton;
+    }
+
+    ItemStack getPreviousButton() {
+        return previousButton;
+    }
+
+    ItemStack getBackButton() {
+        return backButton;
+    }
+
+    ItemStack getSearchButton() {
+        return searchButton;
+    }
+
+    ItemStack getUndoButton() {
+        return undoButton;
+    }
+
+    ItemStack getClearButton() {
+        return clearButton;
+    }
+
+    ItemStack getPreviewButton() {
+        return previewButton;
+    }
+
+    ItemStack getSendButton() {
+        return sendButton;
+    }
+
+    /**
+     * Next button for the favourites page, leading to page 1
+     *
+     * @return
+     */
+    ItemStack getFavouritesNextButton() {
+        return favouritesNextButton;
+    }
+
+    /**
+     * Copy a navigation button and store the page it leads to
+     *
+     * @param button
+     * @param key
+     * @param page
+     * @return
+     */
+    static ItemStack withPage(ItemStack button, NamespacedKey key, int page) {
+        ItemStack itemStack = button.clone();
+        ItemMeta meta = itemStack.getItemMeta();
+        meta.getPersistentDataContainer().set(key, PersistentDataType.INTEGER, page);
+        itemStack.setItemMeta(meta);
+
+        return itemStack;
+    }
+}
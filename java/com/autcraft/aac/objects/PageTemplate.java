@@ -0,0 +1,65 @@
+package com.autcraft.aac.objects;
+
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * A rendered page of the AAC panel.
+ * The contents are filled once when the page is first viewed, including the navigation buttons,
+ * so that opening it again only has to copy the array into a new inventory.
+ *
+ * Each page also carries a slot to action table, so a click can be resolved from the slot number alone.
+ * An action is either an entry ID (an index into the board's entries) or one of the negative ACTION_ constants.
+ */
+public final class PageTemplate {
+    public static final int ACTION_NONE = -1;
+    public static final int ACTION_NEXT = -2;
+    public static final int ACTION_PREVIOUS = -3;
+    public static final int ACTION_BACK = -4;
+    public static final int ACTION_SEARCH = -5;
+    public static final int ACTION_UNDO = -6;
+    public static final int ACTION_CLEAR = -7;
+    public static final int ACTION_PREVIEW = -8;
+    public static final int ACTION_SEND = -9;
+
+    private final int page;
+    private final ItemStack[] contents;
+    private final int[] actions;
+
+    public PageTemplate(int page, ItemStack[] contents, int[] actions) {
+        this.page = page;
+        this.contents = contents;
+        this.actions = actions;
+    }
+
+    /**
+     * Page number, starting at 1
+     *
+     * @return
+     */
+    public int getPage() {
+        return page;
+    }
+
+    /**
+     * The slot contents of this page. Inventories copy the items when they are set,
+     * so the array is shared rather than cloned and must not be modified.
+     *
+     * @return
+     */
+    public ItemStack[] getContents() {
+        return contents;
+    }
+
+    /**
+     * What clicking the raw slot does. Slots outside of the page, such as the player's own inventory, do nothing.
+     *
+     * @param rawSlot
+     * @return
+     */
+    public int getAction(int rawSlot) {
+        if (rawSlot < 0 || rawSlot >= actions.length) {
+            return ACTION_NONE;
+        }
+        return actions[rawSlot];
+    }
+}
@@ -0,0 +1,149 @@
+package com.autcraft.aac.objects;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One board of the panel: the top level, or the contents of a category.
+ *
+ * Entries are sorted by key and an entry's position is its ID, which is what the page templates' actions refer to.
+ * An entry is either a phrase, with an output, or a category tile, with the path of the board it opens.
+ * Keys are full paths, e.g. "food.fruit.apple" for the apple phrase in the fruit category of the food category.
+ * The one exception is the favourites page, put together for each player, which keeps their phrases in order of use.
+ *
+ * Entries are kept as {@link PhraseDescriptor}s. Their items are only built when a page is rendered,
+ * the first time somebody views it, and the rendered page is kept in the snapshot's bounded page cache.
+ */
+public final class PanelBoard {
+    private final String path;
+    private final String title;
+    private final List<String> keys;
+    private final PhraseDescriptor[] entries;
+    private final String[] children;
+    private final PageRenderer renderer;
+    private final PageCache pages;
+    private final PageTemplate fixedPage;
+
+    /**
+     * A board whose pages are rendered when they are viewed
+     *
+     * @param path
+     * @param title
+     * @param keys
+     * @param entries
+     * @param children
+     * @param renderer
+     * @param pages
+     */
+    PanelBoard(String path, String title, List<String> keys, PhraseDescriptor[] entries, String[] children, PageRenderer renderer, PageCache pages) {
+        this.path = path;
+        this.title = title;
+        this.keys = keys;
+        this.entries = entries;
+        this.children = children;
+        this.renderer = renderer;
+        this.pages = pages;
+        this.fixedPage = null;
+    }
+
+    /**
+     * A board of a single page that is already laid out, such as a player's favourites or search results
+     *
+     * @param path
+     * @param title
+     * @param keys
+     * @param entries
+     * @param children
+     * @param page
+     */
+    PanelBoard(String path, String title, List<String> keys, PhraseDescriptor[] entries, String[] children, PageTemplate page) {
+        this.path = path;
+        this.title = title;
+        this.keys = keys;
+        this.entries = entries;
+        this.children = children;
+        this.renderer = null;
+        this.pages = null;
+        this.fixedPage = page;
+    }
+
+    /**
+     * {@link PanelSession#MAIN_BOARD} for the top level, otherwise the key of the category
+     *
+     * @return
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Entry keys, in the order they are displayed
+     *
+     * @return
+     */
+    public List<String> getKeys() {
+        return keys;
+    }
+
+    public String getKey(int entryId) {
+        return keys.get(entryId);
+    }
+
+    /**
+     * Entry ID for the key
+     *
+     * @param key
+     * @return A negative number if the board has no such entry
+     */
+    public int getEntryId(String key) {
+        return Collections.binarySearch(keys, key);
+    }
+
+    PhraseDescriptor getEntry(int entryId) {
+        return entries[entryId];
+    }
+
+    /**
+     * Chat output of the entry, or null for a category
+     *
+     * @param entryId
+     * @return
+     */
+    public String getOutput(int entryId) {
+        return entries[entryId].getOutput();
+    }
+
+    /**
+     * Path of the board the entry opens, or null for a phrase
+     *
+     * @param entryId
+     * @return
+     */
+    public String getChild(int entryId) {
+        return children[entryId];
+    }
+
+    public int getPageCount() {
+        if (fixedPage != null) {
+            return 1;
+        }
+        return Math.max(1, (keys.size() + InventoryGUI.PAGE_SIZE - 1) / InventoryGUI.PAGE_SIZE);
+    }
+
+    /**
+     * A page of the board, rendering it if it isn't cached
+     *
+     * @param page Starting at 1, ignored for a board of a single page that is already laid out
+     * @return
+     */
+    public PageTemplate getPage(int page) {
+        if (fixedPage != null) {
+            return fixedPage;
+        }
+        return pages.get(path, page, () -> renderer.render(this, page));
+    }
+}
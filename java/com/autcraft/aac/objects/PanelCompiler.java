@@ -0,0 +1,533 @@
+package com.autcraft.aac.objects;
+
+import com.autcraft.aac.AAC;
+import com.autcraft.aac.CreatePlayerHead;
+import net.kyori.adventure.text.Component;
+import org.bukkit.Material;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.persistence.PersistentDataType;
+
+import java.util.*;
+
+/**
+ * Builds a {@link PanelSnapshot} from a loaded config.
+ * Only reads from the config it is given and creates new objects, so it can safely run off the main thread.
+ *
+ * When given the previous snapshot, entries whose config hashes the same as before are carried over instead of being rebuilt,
+ * so a reload only pays for what actually changed, player head lookups included.
+ */
+public class PanelCompiler {
+    AAC plugin;
+
+    private final InventoryGUI inventoryGUI;
+    private final FileConfiguration config;
+    private final boolean resolvePlayerHeads;
+    private final PanelSnapshot previous;
+
+    // Filled in while compiling the panel options
+    private final Map<String, Long> entryHashes = new HashMap<>();
+    private final DescriptorPool descriptors = new DescriptorPool();
+    private final List<String> added = new ArrayList<>();
+    private final List<String> changed = new ArrayList<>();
+    private int reused;
+
+    /**
+     * @param plugin
+     * @param inventoryGUI
+     * @param config
+     * @param resolvePlayerHeads False to skip the Mojang lookups for "player:" heads and use a plain head instead
+     */
+    public PanelCompiler(AAC plugin, InventoryGUI inventoryGUI, FileConfiguration config, boolean resolvePlayerHeads) {
+        this(plugin, inventoryGUI, config, resolvePlayerHeads, null);
+    }
+
+    /**
+     * @param plugin
+     * @param inventoryGUI
+     * @param config
+     * @param resolvePlayerHeads False to skip the Mojang lookups for "player:" heads and use a plain head instead
+     * @param previous           Snapshot to reuse unchanged entries from, or null to build everything
+     */
+    public PanelCompiler(AAC plugin, InventoryGUI inventoryGUI, FileConfiguration config, boolean resolvePlayerHeads, PanelSnapshot previous) {
+        this.plugin = plugin;
+        this.inventoryGUI = inventoryGUI;
+        this.config = config;
+        this.resolvePlayerHeads = resolvePlayerHeads;
+        this.previous = previous;
+    }
+
+    /**
+     * Compile everything into a new snapshot
+     *
+     * @param generation
+     * @return
+     */
+    public PanelSnapshot compile(long generation) {
+        Map<String, String> strings = compileStrings();
+        Map<String, String> children = new HashMap<>();
+        Map<String, PhraseDescriptor> panelOptions = compilePanelOptions(PanelSession.MAIN_BOARD, config.getConfigurationSection("panel"), children);
+        Map<String, String> panelTool = compilePanelTool();
+
+        List<String> sortedKeys = new ArrayList<>(panelOptions.keySet());
+        Collections.sort(sortedKeys);
+
+        // Anything that was in the previous panel but isn't any more
+        List<String> removed = new ArrayList<>();
+        if (previous != null) {
+            for (String key : previous.getPhraseIndex()) {
+                if (!panelOptions.containsKey(key)) {
+                    removed.add(key);
+                }
+            }
+        }
+
+        // Reuse the previous tool, strings and navigation buttons when their config is the same
+        boolean toolChanged = previous == null || !panelTool.equals(previousPanelTool());
+        ItemStack tool = toolChanged ? buildTool(panelTool) : previous.getTool();
+
+        boolean stringsChanged = previous == null || !strings.equals(previousStrings(strings.keySet()));
+
+        long navigationHash = ContentHash.of(config.getConfigurationSection("nexticon"), config.getConfigurationSection("previousicon"),
+                config.getConfigurationSection("backicon"), config.getConfigurationSection("searchicon"), config.getConfigurationSection("search"),
+                config.getConfigurationSection("undoicon"), config.getConfigurationSection("clearicon"), config.getConfigurationSection("previewicon"),
+                config.getConfigurationSection("sendicon"), config.getConfigurationSection("compose"));
+        boolean navigationChanged = previous == null || navigationHash != previous.getNavigationHash();
+        PageRenderer renderer = navigationChanged ? buildPageRenderer() : previous.getPageRenderer();
+
+        // Pages already rendered can be kept if nothing on them changed
+        PageCache pages;
+        if (!navigationChanged && added.isEmpty() && changed.isEmpty() && removed.isEmpty()) {
+            pages = previous.getPageCache();
+        } else {
+            pages = new PageCache(Math.max(1, config.getInt("pages.cache_size", 256)));
+        }
+
+        SearchIndex searchIndex = compileSearchIndex();
+
+        PanelBoard root = toBoard(PanelSession.MAIN_BOARD, config.getString("settings.title"), sortedKeys, panelOptions, children, renderer, pages);
+
+        PanelDiff diff = new PanelDiff(added, changed, removed, reused, toolChanged, navigationChanged, stringsChanged);
+        plugin.debug("Panel compiled: " + diff);
+
+        return new PanelSnapshot(
+                generation,
+                !resolvePlayerHeads,
+                root,
+                Collections.unmodifiableMap(panelTool),
+                tool,
+                Collections.unmodifiableMap(strings),
+                entryHashes,
+                navigationHash,
+                renderer,
+                pages,
+                searchIndex,
+                diff,
+                config.getString("favourites.title", "Favourites"),
+                config,
+                Math.max(1, config.getInt("categories.cache_size", 64))
+        );
+    }
+
+    /**
+     * Compile a category board of the snapshot, the first time it is opened
+     *
+     * @param panel
+     * @param path  Key of the category, e.g. "food" or "food.fruit"
+     * @return Null if the config has no such category
+     */
+    public PanelBoard compileBoard(PanelSnapshot panel, String path) {
+        // "food.fruit" lives at panel.food.panel.fruit, and its contents at panel.food.panel.fruit.panel
+        String tilePath = "panel." + path.replace(".", ".panel.");
+        ConfigurationSection tile = config.getConfigurationSection(tilePath);
+        ConfigurationSection section = config.getConfigurationSection(tilePath + ".panel");
+        if (tile == null || section == null) {
+            return null;
+        }
+
+        Map<String, String> children = new HashMap<>();
+        Map<String, PhraseDescriptor> entries = compilePanelOptions(path, section, children);
+
+        List<String> sortedKeys = new ArrayList<>(entries.keySet());
+        Collections.sort(sortedKeys);
+
+        String title = tile.getString("title", tile.getString("name", config.getString("settings.title")));
+
+        return toBoard(path, title, sortedKeys, entries, children, panel.getPageRenderer(), panel.getPageCache());
+    }
+
+    private PanelBoard toBoard(String path, String title, List<String> sortedKeys, Map<String, PhraseDescriptor> entries, Map<String, String> children,
+                               PageRenderer renderer, PageCache pages) {
+        // Entry IDs are positions in the sorted keys
+        PhraseDescriptor[] boardEntries = new PhraseDescriptor[sortedKeys.size()];
+        String[] entryChildren = new String[sortedKeys.size()];
+        for (int entryId = 0; entryId < boardEntries.length; entryId++) {
+            boardEntries[entryId] = entries.get(sortedKeys.get(entryId));
+            entryChildren[entryId] = children.get(sortedKeys.get(entryId));
+        }
+
+        plugin.debug("Board " + path + " compiled: " + sortedKeys.size() + " entries.");
+
+        return new PanelBoard(path, title, Collections.unmodifiableList(sortedKeys), boardEntries, entryChildren, renderer, pages);
+    }
+
+    private Map<String, String> previousPanelTool() {
+        Map<String, String> panelTool = new HashMap<>();
+        for (String key : List.of("icon", "name", "lore")) {
+            panelTool.put(key, previous.getPanelTool(key));
+        }
+        return panelTool;
+    }
+
+    private Map<String, String> previousStrings(Set<String> keys) {
+        Map<String, String> strings = new HashMap<>();
+        for (String key : keys) {
+            strings.put(key, previous.getString(key));
+        }
+        return strings;
+    }
+
+    /**
+     * Retrieve strings from config.yml
+     *
+     * @return
+     */
+    private Map<String, String> compileStrings() {
+        Map<String, String> strings = new HashMap<>();
+
+        // Loop over strings section of config.yml, including the default ones in case the config is from an older version
+        Set<String> paths = new HashSet<>();
+        if (config.getConfigurationSection("strings") != null) {
+            paths.addAll(config.getConfigurationSection("strings").getKeys(false));
+        }
+        if (config.getDefaults() != null && config.getDefaults().getConfigurationSection("strings") != null) {
+            paths.addAll(config.getDefaults().getConfigurationSection("strings").getKeys(false));
+        }
+        for (String path : paths) {
+            strings.put(path, config.getString("strings." + path, "String not found: " + path));
+        }
+        plugin.debug("Strings initialized from config.");
+
+        return strings;
+    }
+
+    /**
+     * Look up the skins of every "player:" head on the board that is about to be built, together rather than one entry at a time.
+     * Entries carried over from the previous panel are skipped, they already have their heads.
+     *
+     * @param boardPath {@link PanelSession#MAIN_BOARD} or the key of the category being compiled
+     * @param section   The board's panel section
+     */
+    private void prefetchPlayerHeads(String boardPath, ConfigurationSection section) {
+        if (!resolvePlayerHeads) {
+            return;
+        }
+
+        boolean topLevel = PanelSession.MAIN_BOARD.equals(boardPath);
+        List<String> playerNames = new ArrayList<>();
+        for (String path : section.getKeys(false)) {
+            String key = topLevel ? path : boardPath + "." + path;
+            if (topLevel && previous != null && ContentHash.of(section.getConfigurationSection(path)) == previous.getEntryHash(key)) {
+                continue;
+            }
+
+            // Heads with a texture set don't need looking up
+            String playerName = section.getString(path + ".player", "");
+            if (Material.PLAYER_HEAD.name().equalsIgnoreCase(section.getString(path + ".icon", ""))
+                    && section.getString(path + ".texture", "").isEmpty() && !playerName.isEmpty()) {
+                playerNames.add(playerName);
+            }
+        }
+
+        if (!playerNames.isEmpty()) {
+            CreatePlayerHead playerHead = new CreatePlayerHead(plugin.getProfileResolver(), plugin.getProfileCache(), plugin.getProfileLookupCache());
+            playerHead.prefetch(playerNames, plugin.getHeadLookups());
+        }
+    }
+
+    /**
+     * Iinitialize the panel entries of a board by describing what their items look like.
+     * Entries with a panel section of their own are category tiles, which open that board instead of sending a phrase.
+     *
+     * @param boardPath {@link PanelSession#MAIN_BOARD} or the key of the category being compiled
+     * @param section   The board's panel section
+     * @param children  Filled with the board path each category tile opens
+     * @return Entries by their full key
+     */
+    private Map<String, PhraseDescriptor> compilePanelOptions(String boardPath, ConfigurationSection section, Map<String, String> children) {
+        plugin.debug("Initirializing Panel from config.");
+        Map<String, PhraseDescriptor> panelOptions = new HashMap<>();
+        boolean topLevel = PanelSession.MAIN_BOARD.equals(boardPath);
+        prefetchPlayerHeads(boardPath, section);
+
+        // Loop over the panel options in the config
+        for (String path : section.getKeys(false)) {
+            String key = topLevel ? path : boardPath + "." + path;
+            long hash = ContentHash.of(section.getConfigurationSection(path));
+
+            // Carry the entry over from the previous panel if its config hasn't changed
+            if (topLevel && previous != null && hash == previous.getEntryHash(key)) {
+                PanelBoard previousRoot = previous.getRoot();
+                int previousId = previousRoot.getEntryId(key);
+                panelOptions.put(key, previousRoot.getEntry(previousId));
+                if (previousRoot.getChild(previousId) != null) {
+                    children.put(key, previousRoot.getChild(previousId));
+                }
+                entryHashes.put(key, hash);
+                reused++;
+                continue;
+            }
+
+            ItemStack head = null;
+            String icon = section.getString(path + ".icon", "");
+            String name = section.getString(path + ".name", "");
+            String playerName = section.getString(path + ".player", "");
+            String texture = section.getString(path + ".texture", "");
+            String lore = section.getString(path + ".lore", "");
+            boolean category = section.isConfigurationSection(path + ".panel");
+            String output = category ? null : section.getString(path + ".output", "");
+
+            // Get material based on config entry. If material is not found in game, skip
+            Material material = Material.getMaterial(icon.toUpperCase());
+            if (material == null) {
+                plugin.toConsole("Error in " + key + ": Material " + icon + " not found.");
+                continue;
+            }
+
+            // If material is set to player_head. Entries showing the same head share one.
+            if (material == Material.PLAYER_HEAD) {
+
+                // Prioritize texture. If they entered one, they probably want it.
+                if (!texture.isEmpty()) {
+                    head = descriptors.head("texture:" + texture, () -> new CreatePlayerHead().getSkull(texture, null, List.of()));
+
+                    // If the texture has no usable skin, rather than just break completely, give the panel a blank player head.
+                    // It is tried again on the next reload.
+                    if (head == null) {
+                        plugin.toConsole("Error in " + key + ": The texture has no usable skin, using a plain player head.");
+                        hash = ContentHash.NONE;
+                    }
+                }
+                // Second is player name. If one is set, get the player's currect skin file
+                else if (!playerName.isEmpty() && resolvePlayerHeads) {
+                    CreatePlayerHead playerHead = new CreatePlayerHead(plugin.getProfileResolver(), plugin.getProfileCache(), plugin.getProfileLookupCache());
+                    head = descriptors.head("player:" + playerName.toLowerCase(Locale.ROOT), () -> playerHead.getSkull(playerName, List.of()));
+
+                    // If something failed in retrieving the skull, give the panel a blank player head. It is looked up again on the next reload.
+                    if (head == null) {
+                        hash = ContentHash.NONE;
+                    }
+                }
+                // If neither is set, or heads aren't being looked up yet, just use the generic player head
+                else if (!playerName.isEmpty()) {
+                    hash = ContentHash.NONE;
+                }
+            }
+
+            // Add panel option to inventory GUI
+            panelOptions.put(key, descriptors.describe(material, name, lore, output, head));
+            if (category) {
+                children.put(key, key);
+            }
+
+            // Only the top level is compared with the previous panel
+            if (topLevel) {
+                entryHashes.put(key, hash);
+                if (previous != null && previous.getPhraseId(key) >= 0) {
+                    changed.add(key);
+                } else {
+                    added.add(key);
+                }
+            }
+        }
+
+        return panelOptions;
+    }
+
+    /**
+     * Index the words of every phrase in the panel, categories included.
+     * Reads only the config, so categories nobody has opened yet are found too.
+     * Top level entries whose config hashes the same as before are carried over with everything in them.
+     *
+     * @return
+     */
+    private SearchIndex compileSearchIndex() {
+        SearchIndex.Builder builder = new SearchIndex.Builder(previous == null ? null : previous.getSearchIndex());
+        ConfigurationSection section = config.getConfigurationSection("panel");
+
+        for (String path : section.getKeys(false)) {
+            Long hash = entryHashes.get(path);
+            boolean unchanged = previous != null && hash != null && hash != ContentHash.NONE && hash == previous.getEntryHash(path);
+            if (!unchanged || !builder.reuse(path)) {
+                indexEntries(builder, path, section, path);
+            }
+        }
+
+        return builder.build();
+    }
+
+    private void indexEntries(SearchIndex.Builder builder, String key, ConfigurationSection section, String path) {
+        // Entries that can't be shown aren't worth finding
+        if (Material.getMaterial(section.getString(path + ".icon", "").toUpperCase()) == null) {
+            return;
+        }
+
+        builder.add(key, section.getString(path + ".name"), section.getString(path + ".lore"), section.getString(path + ".output"));
+
+        ConfigurationSection panel = section.getConfigurationSection(path + ".panel");
+        if (panel != null) {
+            for (String child : panel.getKeys(false)) {
+                indexEntries(builder, key + "." + child, panel, child);
+            }
+        }
+    }
+
+    private Map<String, String> compilePanelTool() {
+        Map<String, String> panelTool = new HashMap<>();
+
+        panelTool.put("icon", config.getString("tool.icon", "knowledge_book"));
+        panelTool.put("name", config.getString("tool.name", "Augmentative and Alternative Communication"));
+        panelTool.put("lore", config.getString("tool.lore", "Click open AAC"));
+        plugin.debug("Panel Tool Initialized.");
+
+        return panelTool;
+    }
+
+    /**
+     * Build the panel tool item to put into the player's inventory when they run the command /aac get
+     *
+     * @param panelTool
+     * @return
+     */
+    private ItemStack buildTool(Map<String, String> panelTool) {
+        String displayName = panelTool.get("name");
+        List<Component> lore = new ArrayList<>();
+        lore.add(Component.text(panelTool.get("lore")));
+
+        // Get the material, if there is one. If not, default it to knowledge book.
+        Material material = Material.getMaterial(panelTool.get("icon").toUpperCase());
+        if (material == null)
+            material = Material.KNOWLEDGE_BOOK;
+
+        // Get the item stack and set data to it.
+        ItemStack item = new ItemStack(material, 1);
+        ItemMeta meta = item.getItemMeta();
+
+        // Set display and lore data
+        meta.displayName(Component.text(displayName));
+        meta.lore(lore);
+
+        // Store persistent data as an identifier to know when this tool is being clicked
+        meta.getPersistentDataContainer().set(inventoryGUI.getNamespacedKeyAACTool(), PersistentDataType.STRING, "AAC_Tool");
+
+        item.setItemMeta(meta);
+
+        return item;
+    }
+
+    /**
+     * Generate and return the Next Button item stack
+     *
+     * @return
+     */
+    private ItemStack getNextButton() {
+        return getNavigationButton("nexticon", "Next", "Go to Next Page");
+    }
+
+    /**
+     * Generate and return the Previous Button item stack
+     *
+     * @return
+     */
+    private ItemStack getPreviousButton() {
+        return getNavigationButton("previousicon", "Previous", "Go to Previous Page");
+    }
+
+    /**
+     * Build the navigation buttons and the sentence builder tiles, if those are turned on
+     *
+     * @return
+     */
+    private PageRenderer buildPageRenderer() {
+        ItemStack searchButton = config.getBoolean("search.enabled", true) ? getSearchButton() : null;
+        if (!config.getBoolean("compose.enabled", false)) {
+            return new PageRenderer(inventoryGUI, getNextButton(), getPreviousButton(), getBackButton(), searchButton, null, null, null, null);
+        }
+
+        return new PageRenderer(inventoryGUI, getNextButton(), getPreviousButton(), getBackButton(), searchButton,
+                getNavigationButton("undoicon", "Undo", "Remove the last phrase"),
+                getNavigationButton("clearicon", "Clear", "Start the sentence again"),
+                getNavigationButton("previewicon", "Your sentence", "Click a phrase to add it"),
+                getNavigationButton("sendicon", "Send", "Send the sentence to the chat"));
+    }
+
+    /**
+     * Generate and return the Back Button item stack, shown in categories
+     *
+     * @return
+     */
+    private ItemStack getBackButton() {
+        return getNavigationButton("backicon", "Back", "Go back");
+    }
+
+    /**
+     * Generate and return the Search Button item stack, which asks for words to search the panel for
+     *
+     * @return
+     */
+    private ItemStack getSearchButton() {
+        return getNavigationButton("searchicon", "Search", "Find a phrase");
+    }
+
+    /**
+     * Generate a navigation button from its config section
+     *
+     * @param section
+     * @param defaultName
+     * @param defaultLore
+     * @return
+     */
+    private ItemStack getNavigationButton(String section, String defaultName, String defaultLore) {
+        ItemStack itemStack;
+        Component displayName = Component.text(config.getString(section + ".name", defaultName));
+        String materialName = config.getString(section + ".material", "BEACON");
+        List<Component> lore = new ArrayList<>();
+        lore.add(Component.text(config.getString(section + ".lore", defaultLore)));
+        String texture = config.getString(section + ".texture", "");
+
+        // Default check. We can't have a player head without a texture.
+        // If it is blank, reset the material to a beacon.
+        if (materialName.equalsIgnoreCase("player_head") && texture.equals("")) {
+            plugin.debug("Material is set to player head but texture is blank.");
+            materialName = "beacon";
+        }
+
+        // Get material, if there is one
+        Material material = Material.getMaterial(materialName.toUpperCase());
+        if (material == null)
+            material = Material.BEACON;
+
+        // If material is set to player_head, create the player head with texture and other info
+        itemStack = null;
+        if (materialName.equalsIgnoreCase("PLAYER_HEAD")) {
+            itemStack = new CreatePlayerHead().getSkull(texture, displayName, lore);
+            if (itemStack == null) {
+                plugin.toConsole("Error in " + section + ": The texture has no usable skin, using a plain player head.");
+            }
+        }
+        // Any other material, or a plain player head if the texture has no usable skin
+        if (itemStack == null) {
+            itemStack = new ItemStack(material, 1);
+            ItemMeta meta = itemStack.getItemMeta();
+
+            meta.displayName(displayName);
+            meta.lore(lore);
+
+            itemStack.setItemMeta(meta);
+        }
+
+        return itemStack;
+    }
+}
@@ -0,0 +1,95 @@
+package com.autcraft.aac.objects;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What changed in the config between a snapshot and the one it was compiled on top of
+ */
+public final class PanelDiff {
+    private final List<String> added;
+    private final List<String> changed;
+    private final List<String> removed;
+    private final int reused;
+    private final boolean toolChanged;
+    private final boolean navigationChanged;
+    private final boolean stringsChanged;
+
+    PanelDiff(List<String> added, List<String> changed, List<String> removed, int reused, boolean toolChanged, boolean navigationChanged, boolean stringsChanged) {
+        Collections.sort(added);
+        Collections.sort(changed);
+        Collections.sort(removed);
+        this.added = Collections.unmodifiableList(added);
+        this.changed = Collections.unmodifiableList(changed);
+        this.removed = Collections.unmodifiableList(removed);
+        this.reused = reused;
+        this.toolChanged = toolChanged;
+        this.navigationChanged = navigationChanged;
+        this.stringsChanged = stringsChanged;
+    }
+
+    /**
+     * Panel options that are new in this snapshot
+     *
+     * @return
+     */
+    public List<String> getAdded() {
+        return added;
+    }
+
+    /**
+     * Panel options that were rebuilt because their config changed, or because their player head has to be looked up again
+     *
+     * @return
+     */
+    public List<String> getChanged() {
+        return changed;
+    }
+
+    /**
+     * Panel options that are no longer in the config
+     *
+     * @return
+     */
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Number of panel options carried over from the previous snapshot without being rebuilt
+     *
+     * @return
+     */
+    public int getReused() {
+        return reused;
+    }
+
+    public boolean isToolChanged() {
+        return toolChanged;
+    }
+
+    public boolean isNavigationChanged() {
+        return navigationChanged;
+    }
+
+    public boolean isStringsChanged() {
+        return stringsChanged;
+    }
+
+    /**
+     * True if nothing at all changed
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && changed.isEmpty() && removed.isEmpty() && !toolChanged && !navigationChanged && !stringsChanged;
+    }
+
+    @Override
+    public String toString() {
+        return "added " + added + ", changed " + changed + ", removed " + removed + ", reused " + reused
+                + ", tool " + (toolChanged ? "changed" : "unchanged")
+                + ", navigation " + (navigationChanged ? "changed" : "unchanged")
+                + ", strings " + (stringsChanged ? "changed" : "unchanged");
+    }
+}
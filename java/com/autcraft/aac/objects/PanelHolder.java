@@ -0,0 +1,57 @@
+package com.autcraft.aac.objects;
+
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Marks an inventory as an AAC panel and ties it to the viewer's session.
+ * Click handling only has to check the holder type to know whether an inventory belongs to AAC.
+ *
+ * The holder also keeps the snapshot, board and page it was rendered from, so clicks are resolved against
+ * exactly what the player sees even if the panel is reloaded while it is open.
+ */
+public class PanelHolder implements InventoryHolder {
+    private final PanelSession session;
+    private final PanelSnapshot snapshot;
+    private final PanelBoard board;
+    private final PageTemplate template;
+    private Inventory inventory;
+
+    public PanelHolder(PanelSession session, PanelSnapshot snapshot, PanelBoard board, PageTemplate template) {
+        this.session = session;
+        this.snapshot = snapshot;
+        this.board = board;
+        this.template = template;
+    }
+
+    public PanelSession getSession() {
+        return session;
+    }
+
+    public PanelSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * The board the page belongs to, which the slot actions refer to
+     *
+     * @return
+     */
+    public PanelBoard getBoard() {
+        return board;
+    }
+
+    public PageTemplate getTemplate() {
+        return template;
+    }
+
+    void setInventory(Inventory inventory) {
+        this.inventory = inventory;
+    }
+
+    @Override
+    public @NotNull Inventory getInventory() {
+        return inventory;
+    }
+}
@@ -0,0 +1,184 @@
+package com.autcraft.aac.objects;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * State of one player's open AAC panel: which board and page they are looking at and since when.
+ * A session lives from opening the panel until it is closed or the player quits, across page changes.
+ *
+ * Opening a category pushes the board and page the player came from onto a breadcrumb stack, and the back button pops it.
+ * Search results are a board of their own, {@link #SEARCH_BOARD}, made again from the last query when the player goes back to them.
+ * In compose mode, the phrases clicked are collected into a sentence that is sent as one message, and kept until the panel is closed.
+ */
+public class PanelSession {
+    public static final String MAIN_BOARD = "main";
+    public static final String SEARCH_BOARD = "#search";
+    private static final int MAX_BREADCRUMBS = 32;
+
+    private final UUID playerId;
+    private final long openedAt;
+    private volatile String board = MAIN_BOARD;
+    private volatile int page = 1;
+    private volatile String query = "";
+    private volatile boolean searching;
+    private volatile boolean opening;
+    private final Deque<Breadcrumb> breadcrumbs = new ArrayDeque<>();
+    private final List<ComposedPart> composed = new ArrayList<>();
+
+    public PanelSession(UUID playerId) {
+        this.playerId = playerId;
+        this.openedAt = System.currentTimeMillis();
+    }
+
+    public UUID getPlayerId() {
+        return playerId;
+    }
+
+    public long getOpenedAt() {
+        return openedAt;
+    }
+
+    public String getBoard() {
+        return board;
+    }
+
+    public void setBoard(String board) {
+        this.board = board;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public void setPage(int page) {
+        this.page = page;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public void setQuery(String query) {
+        this.query = query;
+    }
+
+    /**
+     * Whether the player is typing a search into the anvil
+     *
+     * @return
+     */
+    public boolean isSearching() {
+        return searching;
+    }
+
+    public void setSearching(boolean searching) {
+        this.searching = searching;
+    }
+
+    /**
+     * Whether AAC is opening one of its own inventories for the player, such as another page or the search anvil.
+     * Closing the current one because of that carries the session on, while any other inventory opened over the panel ends it.
+     *
+     * @return
+     */
+    public boolean isOpening() {
+        return opening;
+    }
+
+    public void setOpening(boolean opening) {
+        this.opening = opening;
+    }
+
+    /**
+     * Remember where the player is before they open a category
+     *
+     * @param board
+     * @param page
+     */
+    public synchronized void pushBreadcrumb(String board, int page) {
+        if (breadcrumbs.size() == MAX_BREADCRUMBS) {
+            breadcrumbs.removeLast();
+        }
+        breadcrumbs.push(new Breadcrumb(board, page));
+    }
+
+    /**
+     * Where to go back to
+     *
+     * @return Null if the player is back at the top
+     */
+    public synchronized Breadcrumb popBreadcrumb() {
+        return breadcrumbs.poll();
+    }
+
+    /**
+     * Add a phrase to the end of the sentence being composed
+     *
+     * @param phrase
+     * @param output
+     * @param separator Put between the phrases
+     * @param maxLength Longest the sentence may get
+     * @return False if the sentence would get too long, in which case it is left as it was
+     */
+    public synchronized boolean compose(String phrase, String output, String separator, int maxLength) {
+        int length = getComposedText(separator).length() + (composed.isEmpty() ? 0 : separator.length()) + output.length();
+        if (length > maxLength) {
+            return false;
+        }
+        composed.add(new ComposedPart(phrase, output));
+        return true;
+    }
+
+    /**
+     * Remove the last phrase from the sentence
+     *
+     * @return False if the sentence was already empty
+     */
+    public synchronized boolean undoComposed() {
+        if (composed.isEmpty()) {
+            return false;
+        }
+        composed.remove(composed.size() - 1);
+        return true;
+    }
+
+    public synchronized void clearComposed() {
+        composed.clear();
+    }
+
+    /**
+     * The phrases in the sentence, in the order they were clicked
+     *
+     * @return
+     */
+    public synchronized List<ComposedPart> getComposed() {
+        return List.copyOf(composed);
+    }
+
+    /**
+     * The sentence as it will be sent
+     *
+     * @param separator
+     * @return
+     */
+    public synchronized String getComposedText(String separator) {
+        StringBuilder text = new StringBuilder();
+        for (ComposedPart part : composed) {
+            if (text.length() > 0) {
+                text.append(separator);
+            }
+            text.append(part.output());
+        }
+        return text.toString();
+    }
+
+    public record Breadcrumb(String board, int page) {
+    }
+
+    public record ComposedPart(String phrase, String output) {
+    }
+}
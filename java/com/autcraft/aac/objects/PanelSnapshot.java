@@ -0,0 +1,299 @@
+package com.autcraft.aac.objects;
+
+import org.bukkit.Material;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Immutable result of compiling config.yml: the panel entries, the tool and the strings.
+ * A snapshot is never modified after it is built. Reloading builds a new one and swaps it in,
+ * so event handlers always see one consistent version of the panel.
+ *
+ * Only the top level board is compiled up front. Category boards are compiled from the snapshot's config
+ * the first time they are opened and kept in a bounded cache, so categories nobody opens cost nothing.
+ * Pages are rendered from the entries the first time they are viewed and only the most recently viewed are kept.
+ */
+public final class PanelSnapshot {
+    // Where page 1 with a previous button to the favourites page is kept in the page cache
+    private static final int FIRST_PAGE_AFTER_FAVOURITES = -1;
+
+    private final long generation;
+    private final boolean placeholder;
+    private final PanelBoard root;
+    private final Map<String, String> panelTool;
+    private final ItemStack tool;
+    private final Material toolMaterial;
+    private final Map<String, String> strings;
+    private final Map<String, Long> entryHashes;
+    private final long navigationHash;
+    private final PageRenderer renderer;
+    private final PageCache pages;
+    private final SearchIndex searchIndex;
+    private final PanelDiff diff;
+    private final String favouritesTitle;
+    private final FileConfiguration config;
+    private final BoardCache boards;
+
+    PanelSnapshot(long generation, boolean placeholder, PanelBoard root, Map<String, String> panelTool, ItemStack tool, Map<String, String> strings,
+                  Map<String, Long> entryHashes, long navigationHash, PageRenderer renderer, PageCache pages, SearchIndex searchIndex, PanelDiff diff,
+                  String favouritesTitle, FileConfiguration config, int boardCacheSize) {
+        this.generation = generation;
+        this.placeholder = placeholder;
+        this.root = root;
+        this.panelTool = panelTool;
+        this.tool = tool;
+        this.toolMaterial = tool.getType();
+        this.strings = strings;
+        this.entryHashes = entryHashes;
+        this.navigationHash = navigationHash;
+        this.renderer = renderer;
+        this.pages = pages;
+        this.searchIndex = searchIndex;
+        this.diff = diff;
+        this.favouritesTitle = favouritesTitle;
+        this.config = config;
+        this.boards = new BoardCache(boardCacheSize);
+    }
+
+    /**
+     * Compile counter. A snapshot only replaces another one with a lower generation.
+     *
+     * @return
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * True for the quick snapshot built on startup without looking up player heads
+     *
+     * @return
+     */
+    public boolean isPlaceholder() {
+        return placeholder;
+    }
+
+    /**
+     * False if some player heads couldn't be looked up, and are plain heads until the next reload
+     *
+     * @return
+     */
+    public boolean isComplete() {
+        return !placeholder && !entryHashes.containsValue(ContentHash.NONE);
+    }
+
+    public String getTitle() {
+        return root.getTitle();
+    }
+
+    /**
+     * The top level board
+     *
+     * @return
+     */
+    public PanelBoard getRoot() {
+        return root;
+    }
+
+    public List<String> getPhraseIndex() {
+        return root.getKeys();
+    }
+
+    /**
+     * Chat output of the top level entry with the given ID, its position in the phrase index
+     *
+     * @param phraseId
+     * @return
+     */
+    public String getOutput(int phraseId) {
+        return root.getOutput(phraseId);
+    }
+
+    public int getPageCount() {
+        return root.getPageCount();
+    }
+
+    /**
+     * A category board, if it has been compiled and is still cached
+     *
+     * @param path
+     * @return
+     */
+    public PanelBoard getCachedBoard(String path) {
+        return PanelSession.MAIN_BOARD.equals(path) ? root : boards.getIfCached(path);
+    }
+
+    /**
+     * A board, compiling it with the executor if it isn't cached yet
+     *
+     * @param path
+     * @param compile  Returns null if the config has no such board
+     * @param executor
+     * @return
+     */
+    CompletableFuture<PanelBoard> getBoard(String path, Supplier<PanelBoard> compile, Executor executor) {
+        if (PanelSession.MAIN_BOARD.equals(path)) {
+            return CompletableFuture.completedFuture(root);
+        }
+        return boards.get(path, compile, executor);
+    }
+
+    /**
+     * Number of category boards currently compiled
+     *
+     * @return
+     */
+    public int getCachedBoardCount() {
+        return boards.size();
+    }
+
+    /**
+     * Number of pages currently rendered, of every board
+     *
+     * @return
+     */
+    public int getCachedPageCount() {
+        return pages.size();
+    }
+
+    public String getPanelTool(String key) {
+        return panelTool.get(key);
+    }
+
+    public ItemStack getTool() {
+        return tool;
+    }
+
+    /**
+     * Material of the tool, checked before anything else when looking for the tool in a player's hand
+     *
+     * @return
+     */
+    public Material getToolMaterial() {
+        return toolMaterial;
+    }
+
+    public String getString(String key) {
+        return strings.get(key);
+    }
+
+    /**
+     * What changed compared to the snapshot this one was compiled on top of
+     *
+     * @return
+     */
+    public PanelDiff getDiff() {
+        return diff;
+    }
+
+    public String getFavouritesTitle() {
+        return favouritesTitle;
+    }
+
+    /**
+     * Page 1 with a previous button leading to the favourites page, for players who have one
+     *
+     * @return
+     */
+    public PageTemplate getFirstPageAfterFavourites() {
+        return pages.get(PanelSession.MAIN_BOARD, FIRST_PAGE_AFTER_FAVOURITES, () -> renderer.renderAfterFavourites(root.getPage(1)));
+    }
+
+    /**
+     * Next button for the favourites page, leading to page 1
+     *
+     * @return
+     */
+    ItemStack getFavouritesNextButton() {
+        return renderer.getFavouritesNextButton();
+    }
+
+    /**
+     * Phrase ID of the top level entry with the given key
+     *
+     * @param key
+     * @return A negative number if there is no such entry
+     */
+    public int getPhraseId(String key) {
+        return root.getEntryId(key);
+    }
+
+    /**
+     * Content hash of the panel option's config, or {@link ContentHash#NONE} if it has to be rebuilt on the next reload
+     *
+     * @param key
+     * @return
+     */
+    long getEntryHash(String key) {
+        return entryHashes.getOrDefault(key, ContentHash.NONE);
+    }
+
+    Map<String, Long> getEntryHashes() {
+        return entryHashes;
+    }
+
+    Map<String, String> getPanelTool() {
+        return panelTool;
+    }
+
+    Map<String, String> getStrings() {
+        return strings;
+    }
+
+    long getNavigationHash() {
+        return navigationHash;
+    }
+
+    ItemStack getNextButton() {
+        return renderer.getNextButton();
+    }
+
+    ItemStack getPreviousButton() {
+        return renderer.getPreviousButton();
+    }
+
+    ItemStack getBackButton() {
+        return renderer.getBackButton();
+    }
+
+    /**
+     * The search tile, or null if search is turned off
+     *
+     * @return
+     */
+    ItemStack getSearchButton() {
+        return renderer.getSearchButton();
+    }
+
+    PageRenderer getPageRenderer() {
+        return renderer;
+    }
+
+    PageCache getPageCache() {
+        return pages;
+    }
+
+    /**
+     * Index of every phrase in the panel, categories included
+     *
+     * @return
+     */
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * The config the snapshot was compiled from, which category boards are compiled from later
+     *
+     * @return
+     */
+    FileConfiguration getConfig() {
+        return config;
+    }
+}
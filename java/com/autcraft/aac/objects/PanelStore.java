@@ -0,0 +1,339 @@
+package com.autcraft.aac.objects;
+
+import com.autcraft.aac.AAC;
+import org.bukkit.Material;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * The compiled top level panel kept on disk in plugins/AAC/panel.bin, so a restart with an unchanged config.yml
+ * doesn't have to build any items or look up any player heads before the panel is ready.
+ *
+ * The file is tied to the SHA-256 of config.yml it was compiled from, the file format, the plugin version and the server version,
+ * since items are stored in the server's own format. It ends with a CRC32 of everything before it, so a half written
+ * or damaged file is never used. Anything that doesn't match is ignored and the panel is compiled as usual.
+ *
+ * Entries are stored as what they look like, the same as they are kept in memory, and player heads once each however many entries show them.
+ * Pages are not stored, they are rendered when first viewed as usual. Neither are category boards, which are compiled when first opened.
+ * Servers sharing state hand the compiled panel to each other in the same format, see {@link SharedPanels}.
+ */
+public class PanelStore {
+    private static final int MAGIC = 0x41414350; // "AACP"
+    private static final int FORMAT_VERSION = 3;
+
+    private final AAC plugin;
+    private final InventoryGUI inventoryGUI;
+    private final File file;
+
+    public PanelStore(AAC plugin, InventoryGUI inventoryGUI, File file) {
+        this.plugin = plugin;
+        this.inventoryGUI = inventoryGUI;
+        this.file = file;
+    }
+
+    /**
+     * Load the stored panel, if it was compiled from exactly this config.yml by this version of the plugin and server
+     *
+     * @param config     The config.yml it is for, which category boards are compiled from later
+     * @param configHash SHA-256 of config.yml
+     * @param generation
+     * @return Null if there is no usable stored panel
+     */
+    public PanelSnapshot read(FileConfiguration config, String configHash, long generation) {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), config, configHash, generation, file.getName());
+        } catch (IOException e) {
+            plugin.toConsole("The stored panel in " + file.getName() + " could not be read, it will be compiled again. " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Read a panel in the stored format, from the file or from another server
+     *
+     * @param buffer
+     * @param config     The config.yml it is for, which category boards are compiled from later
+     * @param configHash SHA-256 of config.yml
+     * @param generation
+     * @param source     Where it came from, for the console
+     * @return Null if it is damaged, or was compiled from another config.yml or by another version of the plugin or server
+     */
+    PanelSnapshot decode(ByteBuffer buffer, FileConfiguration config, String configHash, long generation, String source) {
+        try {
+            // Check the whole panel is intact before reading anything from it
+            CRC32 crc = new CRC32();
+            if (buffer.capacity() >= Long.BYTES) {
+                crc.update(buffer.duplicate().limit(buffer.capacity() - Long.BYTES));
+            }
+            if (buffer.capacity() < Long.BYTES || crc.getValue() != buffer.getLong(buffer.capacity() - Long.BYTES)) {
+                plugin.toConsole("The stored panel in " + source + " is damaged, it will be compiled again.");
+                return null;
+            }
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION
+                    || !getVersion().equals(readString(buffer)) || !configHash.equals(readString(buffer))) {
+                plugin.debug("The stored panel in " + source + " is out of date, it will be compiled again.");
+                return null;
+            }
+
+            return readSnapshot(buffer, config, generation);
+        } catch (RuntimeException e) {
+            plugin.toConsole("The stored panel in " + source + " could not be read, it will be compiled again. " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Store a compiled panel, replacing the stored one in one step so that a crash never leaves half a file
+     *
+     * @param panel
+     * @param configHash SHA-256 of the config.yml it was compiled from
+     * @throws IOException
+     */
+    public void write(PanelSnapshot panel, String configHash) throws IOException {
+        File temporary = new File(file.getParentFile(), file.getName() + ".tmp");
+        Files.write(temporary.toPath(), encode(panel, configHash));
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * A compiled panel in the stored format
+     *
+     * @param panel
+     * @param configHash SHA-256 of the config.yml it was compiled from
+     * @return
+     * @throws IOException
+     */
+    byte[] encode(PanelSnapshot panel, String configHash) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        writeString(out, getVersion());
+        writeString(out, configHash);
+
+        PanelBoard root = panel.getRoot();
+        writeString(out, root.getTitle());
+        writeStrings(out, panel.getStrings());
+        writeStrings(out, panel.getPanelTool());
+        writeItem(out, panel.getTool());
+        out.writeLong(panel.getNavigationHash());
+        writeItem(out, panel.getNextButton());
+        writeItem(out, panel.getPreviousButton());
+        writeItem(out, panel.getBackButton());
+        writeItem(out, panel.getSearchButton());
+        PageRenderer renderer = panel.getPageRenderer();
+        writeItem(out, renderer.getUndoButton());
+        writeItem(out, renderer.getClearButton());
+        writeItem(out, renderer.getPreviewButton());
+        writeItem(out, renderer.getSendButton());
+        writeString(out, panel.getFavouritesTitle());
+
+        // Entries, in phrase ID order. Each distinct player head is stored once, before the first entry showing it.
+        List<String> keys = root.getKeys();
+        IdentityHashMap<ItemStack, Integer> headIds = new IdentityHashMap<>();
+        out.writeInt(keys.size());
+        for (int entryId = 0; entryId < keys.size(); entryId++) {
+            String key = keys.get(entryId);
+            PhraseDescriptor entry = root.getEntry(entryId);
+            writeString(out, key);
+            writeString(out, entry.getMaterial().name());
+            writeString(out, entry.getName());
+            writeString(out, entry.getLore());
+            writeString(out, entry.getOutput());
+            writeString(out, root.getChild(entryId));
+            out.writeLong(panel.getEntryHash(key));
+
+            ItemStack head = entry.getHead();
+            if (head == null) {
+                out.writeInt(-1);
+            } else if (headIds.containsKey(head)) {
+                out.writeInt(headIds.get(head));
+            } else {
+                out.writeInt(headIds.size());
+                headIds.put(head, headIds.size());
+                writeItem(out, head);
+            }
+        }
+
+        Map<String, String[]> phraseTokens = panel.getSearchIndex().getPhraseTokens();
+        out.writeInt(phraseTokens.size());
+        for (Map.Entry<String, String[]> phrase : phraseTokens.entrySet()) {
+            writeString(out, phrase.getKey());
+            out.writeInt(phrase.getValue().length);
+            for (String token : phrase.getValue()) {
+                writeString(out, token);
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    private PanelSnapshot readSnapshot(ByteBuffer in, FileConfiguration config, long generation) {
+        String title = readString(in);
+        Map<String, String> strings = readStrings(in);
+        Map<String, String> panelTool = readStrings(in);
+        ItemStack tool = readItem(in);
+        long navigationHash = in.getLong();
+        ItemStack nextButton = readItem(in);
+        ItemStack previousButton = readItem(in);
+        ItemStack backButton = readItem(in);
+        ItemStack searchButton = readItem(in);
+        ItemStack undoButton = readItem(in);
+        ItemStack clearButton = readItem(in);
+        ItemStack previewButton = readItem(in);
+        ItemStack sendButton = readItem(in);
+        String favouritesTitle = readString(in);
+
+        int entryCount = in.getInt();
+        List<String> keys = new ArrayList<>(entryCount);
+        PhraseDescriptor[] entries = new PhraseDescriptor[entryCount];
+        String[] children = new String[entryCount];
+        Map<String, Long> entryHashes = new HashMap<>();
+        List<ItemStack> heads = new ArrayList<>();
+        DescriptorPool descriptors = new DescriptorPool();
+        for (int entryId = 0; entryId < entryCount; entryId++) {
+            String key = readString(in);
+            keys.add(key);
+            Material material = Material.getMaterial(readString(in));
+            String name = readString(in);
+            String lore = readString(in);
+            String output = readString(in);
+            children[entryId] = readString(in);
+            entryHashes.put(key, in.getLong());
+
+            int headId = in.getInt();
+            if (headId == heads.size()) {
+                heads.add(readItem(in));
+            }
+            if (material == null) {
+                throw new IllegalStateException("Unknown material in entry " + key);
+            }
+            entries[entryId] = descriptors.describe(material, name, lore, output, headId < 0 ? null : heads.get(headId));
+        }
+
+        SearchIndex.Builder searchIndex = new SearchIndex.Builder(null);
+        int phraseCount = in.getInt();
+        for (int phrase = 0; phrase < phraseCount; phrase++) {
+            String key = readString(in);
+            String[] words = new String[in.getInt()];
+            for (int word = 0; word < words.length; word++) {
+                words[word] = readString(in);
+            }
+            searchIndex.addWords(key, words);
+        }
+
+        PageRenderer renderer = new PageRenderer(inventoryGUI, nextButton, previousButton, backButton, searchButton,
+                undoButton, clearButton, previewButton, sendButton);
+        PageCache pages = new PageCache(Math.max(1, config.getInt("pages.cache_size", 256)));
+        PanelBoard root = new PanelBoard(PanelSession.MAIN_BOARD, title, Collections.unmodifiableList(keys), entries, children, renderer, pages);
+
+        return new PanelSnapshot(
+                generation,
+                false,
+                root,
+                Collections.unmodifiableMap(panelTool),
+                tool,
+                Collections.unmodifiableMap(strings),
+                entryHashes,
+                navigationHash,
+                renderer,
+                pages,
+                searchIndex.build(),
+                new PanelDiff(List.of(), List.of(), List.of(), entryCount, false, false, false),
+                favouritesTitle,
+                config,
+                Math.max(1, config.getInt("categories.cache_size", 64))
+        );
+    }
+
+    /**
+     * Stored items are only readable by the server version that wrote them, and the layout can change between plugin versions
+     *
+     * @return
+     */
+    private String getVersion() {
+        return plugin.getDescription().getVersion() + "/" + plugin.getServer().getBukkitVersion();
+    }
+
+    private static void writeItem(DataOutputStream out, ItemStack item) throws IOException {
+        if (item == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = item.serializeAsBytes();
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static ItemStack readItem(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return ItemStack.deserializeBytes(bytes);
+    }
+
+    private static void writeStrings(DataOutputStream out, Map<String, String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (Map.Entry<String, String> entry : strings.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+    }
+
+    private static Map<String, String> readStrings(ByteBuffer in) {
+        int size = in.getInt();
+        Map<String, String> strings = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            strings.put(readString(in), readString(in));
+        }
+        return strings;
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,83 @@
+package com.autcraft.aac.objects;
+
+import net.kyori.adventure.text.Component;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.persistence.PersistentDataType;
+
+import java.util.List;
+
+/**
+ * What a panel entry looks like, kept instead of a built ItemStack so that a large panel costs a few references per entry.
+ * The name and lore components, and the head for player heads, are shared by every entry that looks the same.
+ * The item is only built when a page showing the entry is rendered.
+ */
+final class PhraseDescriptor {
+    private final Material material;
+    private final String name;
+    private final String lore;
+    private final Component displayName;
+    private final List<Component> loreComponents;
+    private final String output;
+    private final ItemStack head;
+
+    /**
+     * @param material
+     * @param name
+     * @param lore
+     * @param displayName    Shared component for the name
+     * @param loreComponents Shared components for the lore
+     * @param output         Chat output, or null for a category tile
+     * @param head           Shared player head with its skin, or null for any other item
+     */
+    PhraseDescriptor(Material material, String name, String lore, Component displayName, List<Component> loreComponents, String output, ItemStack head) {
+        this.material = material;
+        this.name = name;
+        this.lore = lore;
+        this.displayName = displayName;
+        this.loreComponents = loreComponents;
+        this.output = output;
+        this.head = head;
+    }
+
+    Material getMaterial() {
+        return material;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getLore() {
+        return lore;
+    }
+
+    String getOutput() {
+        return output;
+    }
+
+    ItemStack getHead() {
+        return head;
+    }
+
+    /**
+     * Build the item for a page
+     *
+     * @param outputKey Where the output is stored on the item, for copies of it made in creative mode
+     * @return
+     */
+    ItemStack materialise(NamespacedKey outputKey) {
+        ItemStack itemStack = head != null ? head.clone() : new ItemStack(material, 1);
+        ItemMeta meta = itemStack.getItemMeta();
+        meta.displayName(displayName);
+        meta.lore(loreComponents);
+        if (output != null) {
+            meta.getPersistentDataContainer().set(outputKey, PersistentDataType.STRING, output);
+        }
+        itemStack.setItemMeta(meta);
+
+        return itemStack;
+    }
+}
@@ -0,0 +1,238 @@
+package com.autcraft.aac.objects;
+
+import java.util.*;
+
+/**
+ * Token index over every phrase in the panel, categories included, for /aac search and the search tile.
+ *
+ * The words of each phrase's name, lore and output are kept in one sorted array of unique tokens, each with the sorted
+ * IDs of the phrases that contain it. Finding the tokens that start with a query word is a binary search to the first one,
+ * then a walk while they still match. The rarest word of the query is looked up first and the phrases it matched are
+ * narrowed down by the other words, so a search costs about as much as its most specific word.
+ *
+ * Phrase IDs are positions in the sorted array of phrase keys, which are full paths like the keys of {@link PanelBoard}.
+ */
+public class SearchIndex {
+    // Roughly how many posting entries it costs to check one candidate phrase's own words instead
+    private static final int CANDIDATE_CHECK_COST = 8;
+
+    private final String[] phrases;
+    private final String[] tokens;
+    private final int[][] postings;
+
+    // Tokens of each phrase, so the next reload can carry over phrases that haven't changed
+    private final Map<String, String[]> phraseTokens;
+
+    private SearchIndex(String[] phrases, String[] tokens, int[][] postings, Map<String, String[]> phraseTokens) {
+        this.phrases = phrases;
+        this.tokens = tokens;
+        this.postings = postings;
+        this.phraseTokens = phraseTokens;
+    }
+
+    /**
+     * Find the phrases that have a word starting with every word of the query, in key order
+     *
+     * @param query
+     * @param limit Most keys to return
+     * @return
+     */
+    public List<String> search(String query, int limit) {
+        BitSet matches = match(query);
+        List<String> results = new ArrayList<>(Math.min(limit, matches.cardinality()));
+        for (int id = matches.nextSetBit(0); id >= 0 && results.size() < limit; id = matches.nextSetBit(id + 1)) {
+            results.add(phrases[id]);
+        }
+
+        return results;
+    }
+
+    /**
+     * Count the phrases matching the query
+     *
+     * @param query
+     * @return
+     */
+    public int count(String query) {
+        return match(query).cardinality();
+    }
+
+    private BitSet match(String query) {
+        String[] words = tokenize(query);
+        BitSet matches = new BitSet(phrases.length);
+        if (words.length == 0) {
+            return matches;
+        }
+
+        // Tokens are sorted, so the ones starting with a word are all next to each other
+        int[][] ranges = new int[words.length][];
+        for (int i = 0; i < words.length; i++) {
+            int from = Arrays.binarySearch(tokens, words[i]);
+            from = from < 0 ? -from - 1 : from;
+            int to = from;
+            int size = 0;
+            for (; to < tokens.length && tokens[to].startsWith(words[i]); to++) {
+                size += postings[to].length;
+            }
+            ranges[i] = new int[]{from, to, size, i};
+        }
+
+        // Start from the rarest word, so the others only have to be checked against what it matched
+        Arrays.sort(ranges, Comparator.comparingInt(range -> range[2]));
+        for (int index = ranges[0][0]; index < ranges[0][1]; index++) {
+            for (int id : postings[index]) {
+                matches.set(id);
+            }
+        }
+
+        for (int i = 1; i < ranges.length && !matches.isEmpty(); i++) {
+            int[] range = ranges[i];
+            String word = words[range[3]];
+
+            // Few candidates left: look at their own words. Otherwise intersect with everything the word matches.
+            if (matches.cardinality() * CANDIDATE_CHECK_COST < range[2]) {
+                for (int id = matches.nextSetBit(0); id >= 0; id = matches.nextSetBit(id + 1)) {
+                    if (!hasWordStartingWith(phraseTokens.get(phrases[id]), word)) {
+                        matches.clear(id);
+                    }
+                }
+            } else {
+                BitSet wordMatches = new BitSet(phrases.length);
+                for (int index = range[0]; index < range[1]; index++) {
+                    for (int id : postings[index]) {
+                        wordMatches.set(id);
+                    }
+                }
+                matches.and(wordMatches);
+            }
+        }
+
+        return matches;
+    }
+
+    private static boolean hasWordStartingWith(String[] phraseWords, String prefix) {
+        for (String phraseWord : phraseWords) {
+            if (phraseWord.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The words of each phrase, to store the index with
+     *
+     * @return
+     */
+    Map<String, String[]> getPhraseTokens() {
+        return phraseTokens;
+    }
+
+    public int getPhraseCount() {
+        return phrases.length;
+    }
+
+    public int getTokenCount() {
+        return tokens.length;
+    }
+
+    /**
+     * Split text into lower case words of letters and digits, without duplicates
+     *
+     * @param text
+     * @return
+     */
+    static String[] tokenize(String text) {
+        Set<String> words = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+
+        return words.toArray(new String[0]);
+    }
+
+    /**
+     * Collects phrases then sorts them into an index.
+     * Phrases under a top level entry whose config hasn't changed can be carried over from the previous index without reading them again.
+     */
+    static class Builder {
+        private final SearchIndex previous;
+        private final Map<String, String[]> phraseTokens = new HashMap<>();
+
+        Builder(SearchIndex previous) {
+            this.previous = previous;
+        }
+
+        /**
+         * Add a phrase whose words are already known, such as from a stored panel
+         *
+         * @param key
+         * @param words
+         */
+        void addWords(String key, String[] words) {
+            phraseTokens.put(key, words);
+        }
+
+        void add(String key, String... texts) {
+            Set<String> words = new LinkedHashSet<>();
+            for (String text : texts) {
+                if (text != null) {
+                    words.addAll(Arrays.asList(tokenize(text)));
+                }
+            }
+            phraseTokens.put(key, words.toArray(new String[0]));
+        }
+
+        /**
+         * Carry over the phrase and everything in it, if it is a category, from the previous index
+         *
+         * @param key Top level key
+         * @return False if the previous index didn't have it
+         */
+        boolean reuse(String key) {
+            if (previous == null || !previous.phraseTokens.containsKey(key)) {
+                return false;
+            }
+
+            // Keys inside the category sort right after it, mixed only with keys that merely start the same, like "food-2"
+            int index = Arrays.binarySearch(previous.phrases, key);
+            for (; index < previous.phrases.length && previous.phrases[index].startsWith(key); index++) {
+                String phrase = previous.phrases[index];
+                if (phrase.length() == key.length() || phrase.charAt(key.length()) == '.') {
+                    phraseTokens.put(phrase, previous.phraseTokens.get(phrase));
+                }
+            }
+
+            return true;
+        }
+
+        SearchIndex build() {
+            String[] phrases = phraseTokens.keySet().toArray(new String[0]);
+            Arrays.sort(phrases);
+
+            // Invert phrase -> tokens into token -> phrase IDs, which come out sorted since phrases are visited in order
+            Map<String, List<Integer>> inverted = new HashMap<>();
+            for (int id = 0; id < phrases.length; id++) {
+                for (String token : phraseTokens.get(phrases[id])) {
+                    inverted.computeIfAbsent(token, t -> new ArrayList<>()).add(id);
+                }
+            }
+
+            String[] tokens = inverted.keySet().toArray(new String[0]);
+            Arrays.sort(tokens);
+            int[][] postings = new int[tokens.length][];
+            for (int i = 0; i < tokens.length; i++) {
+                postings[i] = inverted.get(tokens[i]).stream().mapToInt(Integer::intValue).toArray();
+            }
+
+            return new SearchIndex(phrases, tokens, postings, Collections.unmodifiableMap(phraseTokens));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.autcraft.aac.objects;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Open AAC panel sessions, keyed by player UUID
+ */
+public class SessionRegistry {
+    private final Map<UUID, PanelSession> sessions = new ConcurrentHashMap<>();
+    private final Map<UUID, Integer> lastOpenTick = new ConcurrentHashMap<>();
+
+    /**
+     * Record that the player opens the panel in this tick.
+     * Returns false if it was already opened for them in the same tick, for example by the other hand's interact event.
+     *
+     * @param playerId
+     * @param tick     The player's own tick count, since there is no single server tick on Folia
+     * @return
+     */
+    public boolean tryOpen(UUID playerId, int tick) {
+        Integer previous = lastOpenTick.put(playerId, tick);
+        return previous == null || previous != tick;
+    }
+
+    /**
+     * Return the player's session, starting a new one if they don't have one open
+     *
+     * @param playerId
+     * @return
+     */
+    public PanelSession open(UUID playerId) {
+        return sessions.computeIfAbsent(playerId, PanelSession::new);
+    }
+
+    /**
+     * Return the player's session, or null if they don't have the panel open
+     *
+     * @param playerId
+     * @return
+     */
+    public PanelSession get(UUID playerId) {
+        return sessions.get(playerId);
+    }
+
+    public void close(UUID playerId) {
+        sessions.remove(playerId);
+    }
+
+    /**
+     * Drop everything kept for the player, once they leave
+     *
+     * @param playerId
+     */
+    public void forget(UUID playerId) {
+        sessions.remove(playerId);
+        lastOpenTick.remove(playerId);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+}
@@ -0,0 +1,129 @@
+package com.autcraft.aac.objects;
+
+import com.autcraft.aac.AAC;
+import com.autcraft.aac.state.StateStore;
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * The compiled panel shared by every server behind the proxy, so a config.yml is compiled and its player heads looked up once for the whole network.
+ *
+ * For each config.yml, the first server to claim it in the store compiles the panel, stores it in the {@link PanelStore} format and announces it.
+ * The others wait for the announcement and load that panel instead of compiling their own.
+ * A server compiles the panel itself if nobody announces it in time, or if it can't use the stored one, such as one from another server version.
+ */
+final class SharedPanels {
+    private static final String CHANNEL = "panels";
+
+    AAC plugin;
+
+    private final StateStore store;
+    private final PanelStore format;
+    private final Map<String, CompletableFuture<Void>> announcements = new ConcurrentHashMap<>();
+    private final String serverId = UUID.randomUUID().toString();
+
+    SharedPanels(AAC plugin, StateStore store, PanelStore format) {
+        this.plugin = plugin;
+        this.store = store;
+        this.format = format;
+
+        store.subscribe(CHANNEL, message -> {
+            CompletableFuture<Void> waiting = announcements.remove(new String(message, StandardCharsets.UTF_8));
+            if (waiting != null) {
+                waiting.complete(null);
+            }
+        });
+    }
+
+    /**
+     * The panel for the config, from the store if another server compiled it, otherwise compiled here.
+     * Waits for the store and possibly for another server, so it must run off the main thread.
+     *
+     * @param config
+     * @param configHash SHA-256 of config.yml
+     * @param generation
+     * @param compile    Compiles the panel here
+     * @return
+     */
+    PanelSnapshot getOrCompile(FileConfiguration config, String configHash, long generation, Supplier<PanelSnapshot> compile) {
+        long waitMillis = TimeUnit.SECONDS.toMillis(Math.max(1, config.getLong("state.panel_wait_seconds", 30)));
+        // A slow compile must not lose the claim to a server that starts later, so it is never shorter than the wait
+        long claimMillis = Math.max(waitMillis, TimeUnit.SECONDS.toMillis(config.getLong("state.panel_claim_seconds", 300)));
+
+        try {
+            PanelSnapshot shared = fetch(config, configHash, generation);
+            if (shared != null) {
+                return shared;
+            }
+
+            // Claim the config. The claim runs out in case this server goes down before announcing the panel.
+            if (store.putIfAbsent(leaderKey(configHash), serverId.getBytes(StandardCharsets.UTF_8), claimMillis)) {
+                PanelSnapshot compiled = compile.get();
+                share(compiled, config, configHash);
+                return compiled;
+            }
+
+            // Another server is compiling it
+            CompletableFuture<Void> announced = announcements.computeIfAbsent(configHash, hash -> new CompletableFuture<>());
+            shared = fetch(config, configHash, generation);
+            if (shared == null) {
+                announced.get(waitMillis, TimeUnit.MILLISECONDS);
+                shared = fetch(config, configHash, generation);
+            }
+            if (shared != null) {
+                plugin.debug("Loaded the panel compiled by another server.");
+                return shared;
+            }
+        } catch (IOException | ExecutionException e) {
+            plugin.toConsole("Could not get the shared panel, compiling it here. " + e.getMessage());
+        } catch (TimeoutException e) {
+            plugin.toConsole("No other server shared the panel in time, compiling it here.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            announcements.remove(configHash);
+        }
+
+        return compile.get();
+    }
+
+    private PanelSnapshot fetch(FileConfiguration config, String configHash, long generation) throws IOException {
+        byte[] stored = store.get(panelKey(configHash));
+        return stored == null ? null : format.decode(ByteBuffer.wrap(stored), config, configHash, generation, "the state store");
+    }
+
+    /**
+     * Store the panel and announce it.
+     * A panel with player heads that couldn't be looked up isn't stored, and the others compile their own as soon as they hear about it.
+     *
+     * @param compiled
+     * @param config
+     * @param configHash
+     */
+    private void share(PanelSnapshot compiled, FileConfiguration config, String configHash) {
+        try {
+            if (compiled.isComplete()) {
+                long ttl = TimeUnit.HOURS.toMillis(Math.max(1, config.getLong("state.panel_ttl_hours", 168)));
+                store.put(panelKey(configHash), format.encode(compiled, configHash), ttl);
+            }
+        } catch (IOException e) {
+            plugin.toConsole("Error: Could not share the compiled panel. " + e.getMessage());
+        }
+        store.publish(CHANNEL, configHash.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String panelKey(String configHash) {
+        return "panel:" + configHash;
+    }
+
+    private static String leaderKey(String configHash) {
+        return "panel-leader:" + configHash;
+    }
+}
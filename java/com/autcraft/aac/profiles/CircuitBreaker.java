@@ -0,0 +1,57 @@
+package com.autcraft.aac.profiles;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stops calling an upstream service for a while after it fails several times in a row.
+ *
+ * Once open, requests are refused until the pause is over. Then a single trial request is let through:
+ * if it succeeds the breaker closes again, if it fails the breaker stays open for another pause.
+ */
+public class CircuitBreaker {
+    private final int failureThreshold;
+    private final long pauseMillis;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong openUntil = new AtomicLong();
+
+    public CircuitBreaker(int failureThreshold, long pauseMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.pauseMillis = pauseMillis;
+    }
+
+    /**
+     * Return true if a request may be sent now
+     *
+     * @return
+     */
+    public boolean allowRequest() {
+        long until = openUntil.get();
+        if (until == 0) {
+            return true;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now < until) {
+            return false;
+        }
+
+        // Pause is over: let exactly one trial request through by pushing the deadline forward
+        return openUntil.compareAndSet(until, now + pauseMillis);
+    }
+
+    public void recordSuccess() {
+        consecutiveFailures.set(0);
+        openUntil.set(0);
+    }
+
+    public void recordFailure() {
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            openUntil.set(System.currentTimeMillis() + pauseMillis);
+        }
+    }
+
+    public boolean isOpen() {
+        return openUntil.get() != 0;
+    }
+}
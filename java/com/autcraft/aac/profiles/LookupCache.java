@@ -0,0 +1,183 @@
+package com.autcraft.aac.profiles;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-memory cache in front of a slow lookup.
+ *
+ * Concurrent lookups for the same key share one in-flight future, so the loader runs once.
+ * Found values and "not found" results (null) are both cached, each with its own TTL,
+ * and the least recently used entries are evicted once the cache is full.
+ * A loader that throws is not cached, so the next lookup tries again.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class LookupCache<K, V> {
+    private final long positiveTtlMillis;
+    private final long negativeTtlMillis;
+    private final Map<K, Entry<V>> entries;
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public LookupCache(int maximumSize, long positiveTtlMillis, long negativeTtlMillis) {
+        this.positiveTtlMillis = positiveTtlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    /**
+     * Return the cached value for the key, or load it.
+     * If another thread is already loading the same key, wait for its result instead.
+     *
+     * @param key
+     * @param loader
+     * @return The value, or null if the loader found nothing
+     * @throws Exception Whatever the loader threw
+     */
+    public V get(K key, Callable<V> loader) throws Exception {
+        Entry<V> entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+
+        if (entry != null) {
+            if (entry.value == null) {
+                negativeHits.incrementAndGet();
+            } else {
+                hits.incrementAndGet();
+            }
+            return entry.value;
+        }
+
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return join(existing);
+        }
+
+        misses.incrementAndGet();
+        try {
+            V value = loader.call();
+            long ttl = value == null ? negativeTtlMillis : positiveTtlMillis;
+            synchronized (entries) {
+                entries.put(key, new Entry<>(value, System.currentTimeMillis() + ttl));
+            }
+            future.complete(value);
+            return value;
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Return true if there is an unexpired result for the key, found or not
+     *
+     * @param key
+     * @return
+     */
+    public boolean contains(K key) {
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            return entry != null && entry.expiresAt >= System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Cache a result that was loaded some other way, such as in a batch with other keys
+     *
+     * @param key
+     * @param value The value, or null to remember that there is nothing
+     */
+    public void put(K key, V value) {
+        long ttl = value == null ? negativeTtlMillis : positiveTtlMillis;
+        synchronized (entries) {
+            entries.put(key, new Entry<>(value, System.currentTimeMillis() + ttl));
+        }
+    }
+
+    /**
+     * Forget every cached result
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getNegativeHits() {
+        return negativeHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Lookups that waited for another thread's in-flight load instead of loading themselves
+     *
+     * @return
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * Loads currently running
+     *
+     * @return
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    private V join(CompletableFuture<V> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package com.autcraft.aac.profiles;
+
+import com.autcraft.aac.metrics.Metrics;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * {@link ProfileResolver} backed by Mojang's profile and session APIs, or any server answering in the same format.
+ *
+ * One HTTP client is shared by every lookup so connections are reused. Each lookup is a single request
+ * with strict timeouts, retried a few times on server errors, and the response is parsed as it streams in.
+ * Several names are looked up in one request through the bulk endpoint, and every request is counted against the request budget.
+ * After repeated failures the circuit breaker refuses lookups for a while so panel heads fall back to plain heads quickly.
+ */
+public class MojangProfileResolver implements ProfileResolver {
+    public static final String DEFAULT_PROFILE_URL = "https://api.mojang.com/users/profiles/minecraft/";
+    public static final String DEFAULT_SESSION_URL = "https://sessionserver.mojang.com/session/minecraft/profile/";
+    public static final String DEFAULT_BULK_URL = "https://api.minecraftservices.com/minecraft/profile/lookup/bulk/byname";
+
+    // Most names the bulk endpoint accepts in one request
+    public static final int BULK_LIMIT = 10;
+
+    private final HttpClient client;
+    private final String profileUrl;
+    private final String sessionUrl;
+    private final String bulkUrl;
+    private final Duration requestTimeout;
+    private final int retries;
+    private final CircuitBreaker circuitBreaker;
+    private final RequestBudget budget;
+    private final Metrics metrics;
+
+    /**
+     * @param profileUrl     Base URL the player name is appended to
+     * @param sessionUrl     Base URL the undashed UUID is appended to
+     * @param bulkUrl        URL a JSON array of player names is posted to
+     * @param connectTimeout
+     * @param requestTimeout
+     * @param retries        Extra attempts after a failed request
+     * @param circuitBreaker
+     * @param budget         Requests allowed per time window, retries included
+     * @param metrics        Records how long lookups take and how many fail
+     */
+    public MojangProfileResolver(String profileUrl, String sessionUrl, String bulkUrl, Duration connectTimeout, Duration requestTimeout, int retries,
+                                 CircuitBreaker circuitBreaker, RequestBudget budget, Metrics metrics) {
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        this.profileUrl = withTrailingSlash(profileUrl);
+        this.sessionUrl = withTrailingSlash(sessionUrl);
+        this.bulkUrl = bulkUrl;
+        this.requestTimeout = requestTimeout;
+        this.retries = Math.max(0, retries);
+        this.circuitBreaker = circuitBreaker;
+        this.budget = budget;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String getUUID(String name) throws IOException {
+        return withDashes(request(get(profileUrl + name), new FieldHandler("id")));
+    }
+
+    /**
+     * Look the names up {@value #BULK_LIMIT} at a time through the bulk endpoint
+     *
+     * @param names
+     * @return
+     * @throws IOException
+     */
+    @Override
+    public Map<String, String> getUUIDs(Collection<String> names) throws IOException {
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(names));
+        Map<String, String> uuids = new HashMap<>();
+
+        for (int start = 0; start < distinct.size(); start += BULK_LIMIT) {
+            List<String> batch = distinct.subList(start, Math.min(distinct.size(), start + BULK_LIMIT));
+            StringBuilder body = new StringBuilder("[");
+            for (String name : batch) {
+                if (body.length() > 1) {
+                    body.append(',');
+                }
+                body.append('"').append(JSONValue.escape(name)).append('"');
+            }
+            body.append(']');
+
+            HttpRequest request = HttpRequest.newBuilder(URI.create(bulkUrl))
+                    .timeout(requestTimeout)
+                    .header("Accept", "application/json")
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                    .build();
+
+            Map<String, String> found = request(request, new ProfileListHandler());
+            if (found == null) {
+                continue;
+            }
+            for (Map.Entry<String, String> profile : found.entrySet()) {
+                String uuid = withDashes(profile.getValue());
+                if (uuid != null) {
+                    uuids.put(profile.getKey().toLowerCase(Locale.ROOT), uuid);
+                }
+            }
+        }
+
+        return uuids;
+    }
+
+    @Override
+    public String getTexture(UUID uuid) throws IOException {
+        return request(get(sessionUrl + uuid.toString().replace("-", "")), new TexturePropertyHandler());
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public RequestBudget getBudget() {
+        return budget;
+    }
+
+    private HttpRequest get(String url) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .timeout(requestTimeout)
+                .header("Accept", "application/json")
+                .GET()
+                .build();
+    }
+
+    /**
+     * Send a request and stream the response through the handler.
+     * Returns null if the service says there is nothing at that URL.
+     *
+     * @param request
+     * @param handler
+     * @return
+     * @throws IOException
+     */
+    private <T> T request(HttpRequest request, ResultHandler<T> handler) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return send(request, handler);
+        } catch (IOException e) {
+            metrics.getHeadFetchFailures().increment();
+            throw e;
+        } finally {
+            metrics.getProfileLookup().recordSince(start);
+        }
+    }
+
+    private <T> T send(HttpRequest request, ResultHandler<T> handler) throws IOException {
+        if (!circuitBreaker.allowRequest()) {
+            throw new IOException("Profile lookups are paused after repeated failures");
+        }
+
+        IOException lastFailure = null;
+        for (int attempt = 0; attempt <= retries; attempt++) {
+            if (attempt > 0) {
+                backoff(attempt);
+            }
+            budget.acquire();
+
+            try {
+                HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                int status = response.statusCode();
+
+                try (InputStream body = response.body()) {
+                    // No such player or profile
+                    if (status == 204 || status == 404) {
+                        circuitBreaker.recordSuccess();
+                        return null;
+                    }
+
+                    // Rate limited or a server side problem, worth another try
+                    if (status == 429 || status >= 500) {
+                        lastFailure = new IOException("HttpResponseCode: " + status);
+                        continue;
+                    }
+
+                    // Any other answer won't change by asking again
+                    if (status != 200) {
+                        circuitBreaker.recordSuccess();
+                        throw new RejectedException("HttpResponseCode: " + status);
+                    }
+
+                    T result = parse(body, handler);
+                    circuitBreaker.recordSuccess();
+                    return result;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while looking up profile", e);
+            } catch (RejectedException e) {
+                throw e;
+            } catch (IOException e) {
+                lastFailure = e;
+            }
+        }
+
+        circuitBreaker.recordFailure();
+        throw lastFailure;
+    }
+
+    private <T> T parse(InputStream body, ResultHandler<T> handler) throws IOException {
+        try (Reader reader = new InputStreamReader(body, StandardCharsets.UTF_8)) {
+            new JSONParser().parse(reader, handler);
+        } catch (ParseException e) {
+            throw new RejectedException("Invalid JSON from profile service: " + e);
+        }
+        return handler.getResult();
+    }
+
+    private void backoff(int attempt) throws IOException {
+        try {
+            Thread.sleep(250L << (attempt - 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while looking up profile", e);
+        }
+    }
+
+    /**
+     * Mojang returns UUIDs without dashes
+     *
+     * @param id
+     * @return
+     */
+    private static String withDashes(String id) {
+        if (id == null || id.length() != 32) {
+            return null;
+        }
+        return id.substring(0, 8) + "-" + id.substring(8, 12) + "-" + id.substring(12, 16) + "-" + id.substring(16, 20) + "-" + id.substring(20, 32);
+    }
+
+    private static String withTrailingSlash(String url) {
+        return url.endsWith("/") ? url : url + "/";
+    }
+
+    /**
+     * The service answered, but not with something usable. Not retried and not counted against the circuit breaker.
+     */
+    private static final class RejectedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private RejectedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Streaming JSON handler that picks its result out of the document and stops as soon as it has it
+     */
+    private abstract static class ResultHandler<T> implements ContentHandler {
+        protected T result;
+        protected int depth;
+        protected String currentKey;
+
+        T getResult() {
+            return result;
+        }
+
+        @Override
+        public void startJSON() {
+        }
+
+        @Override
+        public void endJSON() {
+        }
+
+        @Override
+        public boolean startObject() {
+            depth++;
+            return true;
+        }
+
+        @Override
+        public boolean endObject() {
+            depth--;
+            return true;
+        }
+
+        @Override
+        public boolean startObjectEntry(String key) {
+            currentKey = key;
+            return true;
+        }
+
+        @Override
+        public boolean endObjectEntry() {
+            currentKey = null;
+            return true;
+        }
+
+        @Override
+        public boolean startArray() {
+            depth++;
+            return true;
+        }
+
+        @Override
+        public boolean endArray() {
+            depth--;
+            return true;
+        }
+    }
+
+    /**
+     * Picks a top level string field, e.g. "id" from {"id":"...","name":"..."}
+     */
+    private static final class FieldHandler extends ResultHandler<String> {
+        private final String field;
+
+        private FieldHandler(String field) {
+            this.field = field;
+        }
+
+        @Override
+        public boolean primitive(Object value) {
+            if (depth == 1 && field.equals(currentKey) && value instanceof String) {
+                result = (String) value;
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Picks the value of the "textures" entry from {"properties":[{"name":"textures","value":"..."}]}
+     */
+    private static final class TexturePropertyHandler extends ResultHandler<String> {
+        private String propertyName;
+        private String propertyValue;
+
+        @Override
+        public boolean startObject() {
+            propertyName = null;
+            propertyValue = null;
+            return super.startObject();
+        }
+
+        @Override
+        public boolean endObject() {
+            if ("textures".equals(propertyName) && propertyValue != null) {
+                result = propertyValue;
+                return false;
+            }
+            return super.endObject();
+        }
+
+        @Override
+        public boolean primitive(Object value) {
+            // Property objects sit inside the properties array, two levels down
+            if (depth == 3 && value instanceof String) {
+                if ("name".equals(currentKey)) {
+                    propertyName = (String) value;
+                } else if ("value".equals(currentKey)) {
+                    propertyValue = (String) value;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Collects name and id from every profile in [{"id":"...","name":"..."},...]
+     */
+    private static final class ProfileListHandler extends ResultHandler<Map<String, String>> {
+        private String id;
+        private String name;
+
+        private ProfileListHandler() {
+            result = new HashMap<>();
+        }
+
+        @Override
+        public boolean startObject() {
+            id = null;
+            name = null;
+            return super.startObject();
+        }
+
+        @Override
+        public boolean endObject() {
+            if (depth == 2 && id != null && name != null) {
+                result.put(name, id);
+            }
+            return super.endObject();
+        }
+
+        @Override
+        public boolean primitive(Object value) {
+            // Profiles are objects directly inside the top level array
+            if (depth == 2 && value instanceof String) {
+                if ("id".equals(currentKey)) {
+                    id = (String) value;
+                } else if ("name".equals(currentKey)) {
+                    name = (String) value;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.autcraft.aac.profiles;
+
+import com.autcraft.aac.AAC;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Durable cache of player name to UUID and UUID to skin texture lookups.
+ *
+ * Entries are kept in memory and appended to a small binary file in the plugin folder,
+ * so a warm restart resolves every head without going to Mojang. Entries older than the
+ * configured TTL are still served, but a refresh is started in the background (stale-while-revalidate).
+ */
+public class ProfileCache {
+    private static final int MAGIC = 0x41414350; // "AACP"
+    private static final byte VERSION = 1;
+    private static final byte TYPE_NAME = 1;
+    private static final byte TYPE_TEXTURE = 2;
+
+    AAC plugin;
+
+    private final File file;
+    private final long ttlMillis;
+    private final Map<String, Entry> names = new ConcurrentHashMap<>();
+    private final Map<String, Entry> textures = new ConcurrentHashMap<>();
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private DataOutputStream output;
+    private int recordsWritten;
+
+    public ProfileCache(AAC plugin, File file) {
+        this.plugin = plugin;
+        this.file = file;
+        this.ttlMillis = TimeUnit.HOURS.toMillis(plugin.getConfig().getLong("heads.cache_ttl_hours", 168));
+
+        load();
+    }
+
+    /**
+     * UUID for the player name, or null if it isn't cached.
+     * A stale entry is returned as is and refreshed in the background using the supplier.
+     *
+     * @param name
+     * @param fetch
+     * @return
+     */
+    public String getUUID(String name, Supplier<String> fetch) {
+        String key = name.toLowerCase(Locale.ROOT);
+        return get(names, TYPE_NAME, key, fetch);
+    }
+
+    public void putUUID(String name, String uuid) {
+        put(names, TYPE_NAME, name.toLowerCase(Locale.ROOT), uuid);
+    }
+
+    /**
+     * Texture value for the UUID, or null if it isn't cached.
+     * A stale entry is returned as is and refreshed in the background using the supplier.
+     *
+     * @param uuid
+     * @param fetch
+     * @return
+     */
+    public String getTexture(String uuid, Supplier<String> fetch) {
+        return get(textures, TYPE_TEXTURE, uuid, fetch);
+    }
+
+    public void putTexture(String uuid, String texture) {
+        put(textures, TYPE_TEXTURE, uuid, texture);
+    }
+
+    public int getNameCount() {
+        return names.size();
+    }
+
+    public int getTextureCount() {
+        return textures.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getStaleHits() {
+        return staleHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getFileSize() {
+        return file.length();
+    }
+
+    /**
+     * Remove every entry, both in memory and on disk
+     */
+    public synchronized void purge() {
+        names.clear();
+        textures.clear();
+        closeOutput();
+        if (file.exists() && !file.delete()) {
+            plugin.toConsole("Error: Could not delete " + file.getName());
+        }
+        recordsWritten = 0;
+        plugin.debug("Profile cache purged.");
+    }
+
+    public synchronized void close() {
+        closeOutput();
+    }
+
+    private String get(Map<String, Entry> entries, byte type, String key, Supplier<String> fetch) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        if (System.currentTimeMillis() - entry.fetchedAt > ttlMillis) {
+            staleHits.incrementAndGet();
+            revalidate(entries, type, key, fetch);
+        } else {
+            hits.incrementAndGet();
+        }
+
+        return entry.value;
+    }
+
+    private void put(Map<String, Entry> entries, byte type, String key, String value) {
+        if (value == null) {
+            return;
+        }
+
+        Entry entry = new Entry(value, System.currentTimeMillis());
+        entries.put(key, entry);
+        append(type, key, entry);
+    }
+
+    /**
+     * Refresh a stale entry in the background. Only one refresh per key runs at a time.
+     *
+     * @param entries
+     * @param type
+     * @param key
+     * @param fetch
+     */
+    private void revalidate(Map<String, Entry> entries, byte type, String key, Supplier<String> fetch) {
+        if (!plugin.isEnabled() || !refreshing.add(type + ":" + key)) {
+            return;
+        }
+
+        plugin.getTaskScheduler().runAsync(() -> {
+            try {
+                String value = fetch.get();
+                if (value != null) {
+                    put(entries, type, key, value);
+                }
+            } finally {
+                refreshing.remove(type + ":" + key);
+            }
+        });
+    }
+
+    /**
+     * Read every record in the cache file. Later records replace earlier ones for the same key.
+     * A truncated or corrupt tail, for example from a crash mid-write, is dropped.
+     */
+    private synchronized void load() {
+        if (!file.exists()) {
+            return;
+        }
+
+        long validLength = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != MAGIC || input.readByte() != VERSION) {
+                plugin.toConsole("Profile cache " + file.getName() + " is not in a known format. Starting with an empty cache.");
+                file.delete();
+                return;
+            }
+            validLength = 5;
+
+            while (true) {
+                byte type = input.readByte();
+                long fetchedAt = input.readLong();
+                String key = input.readUTF();
+                String value = input.readUTF();
+
+                Map<String, Entry> entries = type == TYPE_NAME ? names : type == TYPE_TEXTURE ? textures : null;
+                if (entries == null) {
+                    break;
+                }
+                entries.put(key, new Entry(value, fetchedAt));
+                validLength += 1 + 8 + 2 + modifiedUtf8Length(key) + 2 + modifiedUtf8Length(value);
+                recordsWritten++;
+            }
+        } catch (EOFException e) {
+            // End of file, or a half written record at the end
+        } catch (IOException e) {
+            plugin.toConsole("Error reading profile cache: " + e.getMessage());
+        }
+
+        if (validLength < file.length()) {
+            truncate(validLength);
+        }
+
+        // Rewrite the file without superseded records once it has grown well past the live entries
+        if (recordsWritten > 2 * (names.size() + textures.size()) + 64) {
+            compact();
+        }
+
+        plugin.debug("Profile cache loaded " + names.size() + " names and " + textures.size() + " textures.");
+    }
+
+    private synchronized void append(byte type, String key, Entry entry) {
+        try {
+            if (output == null) {
+                boolean fresh = !file.exists() || file.length() == 0;
+                file.getParentFile().mkdirs();
+                output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+                if (fresh) {
+                    output.writeInt(MAGIC);
+                    output.writeByte(VERSION);
+                }
+            }
+
+            writeRecord(output, type, key, entry);
+            output.flush();
+            recordsWritten++;
+        } catch (IOException e) {
+            plugin.toConsole("Error writing profile cache: " + e.getMessage());
+            closeOutput();
+        }
+    }
+
+    private void compact() {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            for (Map.Entry<String, Entry> entry : names.entrySet()) {
+                writeRecord(out, TYPE_NAME, entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<String, Entry> entry : textures.entrySet()) {
+                writeRecord(out, TYPE_TEXTURE, entry.getKey(), entry.getValue());
+            }
+        } catch (IOException e) {
+            plugin.toConsole("Error compacting profile cache: " + e.getMessage());
+            temp.delete();
+            return;
+        }
+
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            recordsWritten = names.size() + textures.size();
+        } catch (IOException e) {
+            plugin.toConsole("Error compacting profile cache: " + e.getMessage());
+        }
+    }
+
+    private void truncate(long length) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        } catch (IOException e) {
+            plugin.toConsole("Error repairing profile cache: " + e.getMessage());
+        }
+    }
+
+    private void closeOutput() {
+        if (output == null) {
+            return;
+        }
+        try {
+            output.close();
+        } catch (IOException ignored) {
+        }
+        output = null;
+    }
+
+    private static void writeRecord(DataOutputStream out, byte type, String key, Entry entry) throws IOException {
+        out.writeByte(type);
+        out.writeLong(entry.fetchedAt);
+        out.writeUTF(key);
+        out.writeUTF(entry.value);
+    }
+
+    /**
+     * Number of bytes writeUTF uses for the string, not counting the length prefix
+     *
+     * @param string
+     * @return
+     */
+    private static int modifiedUtf8Length(String string) {
+        int length = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                length++;
+            } else if (c > 0x07FF) {
+                length += 3;
+            } else {
+                length += 2;
+            }
+        }
+        return length;
+    }
+
+    private static final class Entry {
+        private final String value;
+        private final long fetchedAt;
+
+        private Entry(String value, long fetchedAt) {
+            this.value = value;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.autcraft.aac.profiles;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Looks up player profiles from an upstream service such as Mojang's API.
+ */
+public interface ProfileResolver {
+
+    /**
+     * Retrieve the player's UUID from just their name
+     *
+     * @param name
+     * @return The UUID in its dashed form, or null if there is no player by that name
+     * @throws IOException If the service could not be reached or answered with an error
+     */
+    String getUUID(String name) throws IOException;
+
+    /**
+     * Retrieve the UUIDs of several players at once.
+     * Services without a bulk lookup are asked for each name in turn.
+     *
+     * @param names
+     * @return Dashed UUIDs by lower case player name. Names with no such player are left out.
+     * @throws IOException If the service could not be reached or answered with an error
+     */
+    default Map<String, String> getUUIDs(Collection<String> names) throws IOException {
+        Map<String, String> uuids = new HashMap<>();
+        for (String name : names) {
+            String uuid = getUUID(name);
+            if (uuid != null) {
+                uuids.put(name.toLowerCase(Locale.ROOT), uuid);
+            }
+        }
+        return uuids;
+    }
+
+    /**
+     * Retrieve the Base64 "textures" property of the player's profile
+     *
+     * @param uuid
+     * @return The texture value, or null if the profile has no textures
+     * @throws IOException If the service could not be reached or answered with an error
+     */
+    String getTexture(UUID uuid) throws IOException;
+}
@@ -0,0 +1,82 @@
+package com.autcraft.aac.profiles;
+
+import java.io.IOException;
+
+/**
+ * Caps how many requests are sent to an upstream service per time window, such as Mojang's limit per 10 minutes.
+ *
+ * A request over the budget waits until the next window starts instead of being sent and rejected with a 429.
+ * Requests run on the thread compiling the panel, so a wait longer than the cap fails instead, and the head is left plain until the next reload.
+ */
+public class RequestBudget {
+    private final int requestsPerWindow;
+    private final long windowMillis;
+    private final long maxWaitMillis;
+    private long windowStart;
+    private int used;
+
+    /**
+     * @param requestsPerWindow 0 or less for no limit
+     * @param windowMillis
+     * @param maxWaitMillis     Longest a request waits for the next window
+     */
+    public RequestBudget(int requestsPerWindow, long windowMillis, long maxWaitMillis) {
+        this.requestsPerWindow = requestsPerWindow;
+        this.windowMillis = Math.max(1, windowMillis);
+        this.maxWaitMillis = Math.max(0, maxWaitMillis);
+    }
+
+    /**
+     * Take one request from the budget, waiting for the next window if this one is used up.
+     * Blocks the calling thread, so it must not be called on the main thread.
+     *
+     * @throws IOException If the next window is further away than the longest wait, or if interrupted while waiting
+     */
+    public void acquire() throws IOException {
+        if (requestsPerWindow <= 0) {
+            return;
+        }
+
+        while (true) {
+            long wait;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                if (now - windowStart >= windowMillis) {
+                    windowStart = now;
+                    used = 0;
+                }
+                if (used < requestsPerWindow) {
+                    used++;
+                    return;
+                }
+                wait = windowStart + windowMillis - now;
+            }
+
+            if (wait > maxWaitMillis) {
+                throw new IOException("Profile lookup budget used up, the next window starts in " + (wait + 999) / 1000 + " seconds");
+            }
+
+            try {
+                Thread.sleep(Math.max(1, wait));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the profile lookup budget", e);
+            }
+        }
+    }
+
+    /**
+     * Requests left in the current window
+     *
+     * @return
+     */
+    public synchronized int getRemaining() {
+        if (requestsPerWindow <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        if (System.currentTimeMillis() - windowStart >= windowMillis) {
+            return requestsPerWindow;
+        }
+        return requestsPerWindow - used;
+    }
+}
@@ -0,0 +1,69 @@
+package com.autcraft.aac.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket settings: up to "burst" messages in a row, then one more every "period".
+ *
+ * The bucket itself is a single long per key, its theoretical arrival time (the generic cell rate algorithm).
+ * That keeps the state primitive and lets checking and consuming happen in one compare-and-set.
+ */
+public final class RateLimit {
+    private final long emissionNanos;
+    private final long toleranceNanos;
+
+    /**
+     * @param burst         Messages that can be sent back to back, at least 1
+     * @param periodSeconds Time for one message to become available again
+     */
+    public RateLimit(int burst, double periodSeconds) {
+        this.emissionNanos = Math.max(0, (long) (periodSeconds * TimeUnit.SECONDS.toNanos(1)));
+        this.toleranceNanos = this.emissionNanos * (Math.max(1, burst) - 1);
+    }
+
+    /**
+     * Take a token from the bucket if there is one
+     *
+     * @param bucket
+     * @param now    System.nanoTime()
+     * @return 0 if the token was taken, otherwise the nanoseconds until one is available
+     */
+    public long tryAcquire(AtomicLong bucket, long now) {
+        while (true) {
+            long tat = bucket.get();
+            long allowedAt = tat - toleranceNanos;
+            if (now < allowedAt) {
+                return allowedAt - now;
+            }
+
+            if (bucket.compareAndSet(tat, Math.max(tat, now) + emissionNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Give back a token taken by {@link #tryAcquire}, when another limit refused the same message
+     *
+     * @param bucket
+     */
+    public void refund(AtomicLong bucket) {
+        bucket.addAndGet(-emissionNanos);
+    }
+
+    /**
+     * A bucket that is full again holds no information and can be dropped
+     *
+     * @param bucket
+     * @param now    System.nanoTime()
+     * @return
+     */
+    public boolean isFull(AtomicLong bucket, long now) {
+        return bucket.get() <= now;
+    }
+
+    public boolean isUnlimited() {
+        return emissionNanos == 0;
+    }
+}
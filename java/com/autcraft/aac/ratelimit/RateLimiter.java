@@ -0,0 +1,266 @@
+package com.autcraft.aac.ratelimit;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how often players can send AAC messages.
+ *
+ * Every player has their own token bucket. Optionally every player also has one bucket per phrase,
+ * and there is one global bucket shared by everyone. A message is only sent if all of them have a token.
+ * Phrase buckets are grouped by player, so reading one player's buckets doesn't touch anyone else's.
+ * Full buckets are dropped every so often while messages are being sent, so no cleanup thread is needed.
+ * Buckets are only charged and dropped inside the map's compute, so a bucket can't be dropped while a message is charging it.
+ */
+public class RateLimiter {
+    private static final int SWEEP_INTERVAL = 256;
+
+    private final ConcurrentMap<UUID, AtomicLong> playerBuckets = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, ConcurrentMap<String, AtomicLong>> phraseBuckets = new ConcurrentHashMap<>();
+    private final AtomicLong globalBucket = new AtomicLong(Long.MIN_VALUE / 2);
+    private final AtomicInteger acquisitions = new AtomicInteger();
+    private volatile Limits limits;
+
+    public RateLimiter(FileConfiguration config) {
+        configure(config);
+    }
+
+    /**
+     * Read the limits from config.yml. Buckets already in use keep their state.
+     *
+     * @param config
+     */
+    public void configure(FileConfiguration config) {
+        // The player limit defaults to the classic cooldown: one message every cooldown_in_seconds
+        double cooldown = config.getDouble("settings.cooldown_in_seconds", 5);
+
+        this.limits = new Limits(
+                readLimit(config.getConfigurationSection("rate_limits.player"), true, 1, cooldown),
+                readLimit(config.getConfigurationSection("rate_limits.phrase"), false, 1, 30),
+                readLimit(config.getConfigurationSection("rate_limits.global"), false, 10, 1)
+        );
+    }
+
+    /**
+     * Check every limit for the message and, if it is allowed, use up a token from each of them
+     *
+     * @param playerId
+     * @param phrase   Key of the phrase being sent
+     * @return 0 if the message may be sent, otherwise the milliseconds until it may be
+     */
+    public long tryAcquire(UUID playerId, String phrase) {
+        return tryAcquire(playerId, List.of(phrase));
+    }
+
+    /**
+     * Check every limit for a message made of several phrases, such as a composed sentence, and if it is allowed, use up a token from each of them.
+     * The player and global buckets are charged once, and every distinct phrase's bucket once.
+     *
+     * @param playerId
+     * @param phrases  Keys of the phrases in the message
+     * @return 0 if the message may be sent, otherwise the milliseconds until it may be
+     */
+    public long tryAcquire(UUID playerId, Collection<String> phrases) {
+        Limits current = this.limits;
+        long now = System.nanoTime();
+
+        if ((acquisitions.incrementAndGet() & (SWEEP_INTERVAL - 1)) == 0) {
+            sweep(current, now);
+        }
+
+        long[] wait = new long[1];
+
+        AtomicLong playerBucket = null;
+        if (current.player != null) {
+            playerBucket = playerBuckets.compute(playerId, (id, bucket) -> charge(current.player, bucket, now, wait));
+            if (wait[0] > 0) {
+                return toMillis(wait[0]);
+            }
+        }
+
+        List<AtomicLong> charged = new ArrayList<>();
+        if (current.phrase != null) {
+            phraseBuckets.compute(playerId, (id, buckets) -> {
+                buckets = buckets == null ? new ConcurrentHashMap<>() : buckets;
+                for (String phrase : new LinkedHashSet<>(phrases)) {
+                    AtomicLong phraseBucket = buckets.compute(phrase, (key, bucket) -> charge(current.phrase, bucket, now, wait));
+                    if (wait[0] > 0) {
+                        break;
+                    }
+                    charged.add(phraseBucket);
+                }
+                return buckets;
+            });
+            if (wait[0] > 0) {
+                refund(current.player, playerBucket);
+                charged.forEach(bucket -> refund(current.phrase, bucket));
+                return toMillis(wait[0]);
+            }
+        }
+
+        if (current.global != null) {
+            long globalWait = current.global.tryAcquire(globalBucket, now);
+            if (globalWait > 0) {
+                refund(current.player, playerBucket);
+                charged.forEach(bucket -> refund(current.phrase, bucket));
+                return toMillis(globalWait);
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * The player's buckets that aren't full, as the wall clock time each will be full again, to share them with other servers
+     *
+     * @param playerId
+     * @return Epoch milliseconds by phrase key, with "" for the player's own bucket
+     */
+    public Map<String, Long> export(UUID playerId) {
+        long now = System.nanoTime();
+        long nowMillis = System.currentTimeMillis();
+        Map<String, Long> buckets = new HashMap<>();
+
+        AtomicLong playerBucket = playerBuckets.get(playerId);
+        if (playerBucket != null && playerBucket.get() > now) {
+            buckets.put("", nowMillis + TimeUnit.NANOSECONDS.toMillis(playerBucket.get() - now));
+        }
+        Map<String, AtomicLong> phrases = phraseBuckets.get(playerId);
+        if (phrases != null) {
+            for (Map.Entry<String, AtomicLong> phraseBucket : phrases.entrySet()) {
+                long tat = phraseBucket.getValue().get();
+                if (tat > now) {
+                    buckets.put(phraseBucket.getKey(), nowMillis + TimeUnit.NANOSECONDS.toMillis(tat - now));
+                }
+            }
+        }
+
+        return buckets;
+    }
+
+    /**
+     * Take over a player's buckets from another server. Each bucket keeps whichever of the two is further from full.
+     *
+     * @param playerId
+     * @param buckets  As returned by {@link #export(UUID)}
+     */
+    public void merge(UUID playerId, Map<String, Long> buckets) {
+        long now = System.nanoTime();
+        long nowMillis = System.currentTimeMillis();
+
+        for (Map.Entry<String, Long> bucket : buckets.entrySet()) {
+            if (bucket.getValue() <= nowMillis) {
+                continue;
+            }
+
+            long tat = now + TimeUnit.MILLISECONDS.toNanos(bucket.getValue() - nowMillis);
+            if (bucket.getKey().isEmpty()) {
+                playerBuckets.compute(playerId, (id, local) -> later(local, tat));
+            } else {
+                phraseBuckets.compute(playerId, (id, local) -> {
+                    local = local == null ? new ConcurrentHashMap<>() : local;
+                    local.compute(bucket.getKey(), (key, phraseBucket) -> later(phraseBucket, tat));
+                    return local;
+                });
+            }
+        }
+    }
+
+    public int size() {
+        int size = playerBuckets.size();
+        for (Map<String, AtomicLong> buckets : phraseBuckets.values()) {
+            size += buckets.size();
+        }
+        return size;
+    }
+
+    private void sweep(Limits current, long now) {
+        sweep(playerBuckets, current.player, now);
+
+        // A player's phrase buckets are swept under the compute for the player, and dropped along with the player once none are left
+        for (UUID playerId : phraseBuckets.keySet()) {
+            phraseBuckets.computeIfPresent(playerId, (id, buckets) -> {
+                sweep(buckets, current.phrase, now);
+                return buckets.isEmpty() ? null : buckets;
+            });
+        }
+    }
+
+    /**
+     * Drop the full buckets, or every bucket if the limit is switched off.
+     * Each is checked again under compute, so one charged since the sweep started is kept.
+     */
+    private static <K> void sweep(ConcurrentMap<K, AtomicLong> buckets, RateLimit limit, long now) {
+        for (K key : buckets.keySet()) {
+            buckets.computeIfPresent(key, (k, bucket) -> limit == null || limit.isFull(bucket, now) ? null : bucket);
+        }
+    }
+
+    /**
+     * Charge the bucket, creating it full if there is none
+     *
+     * @param limit
+     * @param bucket Null if there is none yet
+     * @param now
+     * @param wait   Set to 0 if charged, otherwise the nanoseconds until it can be
+     * @return The bucket
+     */
+    private static AtomicLong charge(RateLimit limit, AtomicLong bucket, long now, long[] wait) {
+        AtomicLong charged = bucket == null ? new AtomicLong(now) : bucket;
+        wait[0] = limit.tryAcquire(charged, now);
+        return charged;
+    }
+
+    private static AtomicLong later(AtomicLong bucket, long tat) {
+        if (bucket == null) {
+            return new AtomicLong(tat);
+        }
+        bucket.accumulateAndGet(tat, Math::max);
+        return bucket;
+    }
+
+    private static void refund(RateLimit limit, AtomicLong bucket) {
+        if (limit != null && bucket != null) {
+            limit.refund(bucket);
+        }
+    }
+
+    private static long toMillis(long nanos) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    /**
+     * @return The limit, or null if it is switched off
+     */
+    private static RateLimit readLimit(ConfigurationSection section, boolean enabledByDefault, int defaultBurst, double defaultSeconds) {
+        boolean enabled = section == null ? enabledByDefault : section.getBoolean("enabled", enabledByDefault);
+        if (!enabled) {
+            return null;
+        }
+
+        int burst = section == null ? defaultBurst : section.getInt("burst", defaultBurst);
+        double seconds = section == null ? defaultSeconds : section.getDouble("seconds", defaultSeconds);
+        RateLimit limit = new RateLimit(burst, seconds);
+
+        return limit.isUnlimited() ? null : limit;
+    }
+
+    private static final class Limits {
+        private final RateLimit player;
+        private final RateLimit phrase;
+        private final RateLimit global;
+
+        private Limits(RateLimit player, RateLimit phrase, RateLimit global) {
+            this.player = player;
+            this.phrase = phrase;
+            this.global = global;
+        }
+    }
+}
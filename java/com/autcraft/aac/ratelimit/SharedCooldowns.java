@@ -0,0 +1,105 @@
+package com.autcraft.aac.ratelimit;
+
+import com.autcraft.aac.AAC;
+import com.autcraft.aac.state.StateStore;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps each player's cooldowns the same on every server behind the proxy, so hopping servers doesn't skip a cooldown.
+ *
+ * The rate limiter stays the near side copy that every click is checked against, without waiting on the network.
+ * When a player sends a message their buckets are written to the store and announced to the other servers, which take them over.
+ * A player joining a server reads their buckets from the store once, in case they were announced before the server saw them.
+ */
+public class SharedCooldowns {
+    private static final String CHANNEL = "cooldowns";
+    private static final long TTL_MARGIN_MILLIS = 1000;
+
+    AAC plugin;
+
+    private final StateStore store;
+    private final RateLimiter rateLimiter;
+    private final String serverId = UUID.randomUUID().toString();
+
+    public SharedCooldowns(AAC plugin, StateStore store, RateLimiter rateLimiter) {
+        this.plugin = plugin;
+        this.store = store;
+        this.rateLimiter = rateLimiter;
+
+        store.subscribe(CHANNEL, this::receive);
+    }
+
+    /**
+     * Share the player's buckets after they sent a message. The write and announcement go out with the store's next batch.
+     *
+     * @param playerId
+     */
+    public void publish(UUID playerId) {
+        Map<String, Long> buckets = rateLimiter.export(playerId);
+        if (buckets.isEmpty()) {
+            return;
+        }
+
+        long latest = 0;
+        StringBuilder encoded = new StringBuilder(serverId).append('\n').append(playerId).append('\n');
+        for (Map.Entry<String, Long> bucket : buckets.entrySet()) {
+            encoded.append(bucket.getKey()).append('\t').append(bucket.getValue()).append('\n');
+            latest = Math.max(latest, bucket.getValue());
+        }
+
+        byte[] value = encoded.toString().getBytes(StandardCharsets.UTF_8);
+        store.put(key(playerId), value, latest - System.currentTimeMillis() + TTL_MARGIN_MILLIS);
+        store.publish(CHANNEL, value);
+    }
+
+    /**
+     * Read the player's buckets from the store, such as when they join. Waits for the store, so it is meant to run off the main thread.
+     *
+     * @param playerId
+     */
+    public void load(UUID playerId) {
+        try {
+            byte[] value = store.get(key(playerId));
+            if (value != null) {
+                merge(value, false);
+            }
+        } catch (IOException e) {
+            plugin.debug("Could not read shared cooldowns for " + playerId + ". " + e.getMessage());
+        }
+    }
+
+    private void receive(byte[] message) {
+        merge(message, true);
+    }
+
+    /**
+     * @param value
+     * @param skipOwn Ignore what this server announced itself
+     */
+    private void merge(byte[] value, boolean skipOwn) {
+        String[] lines = new String(value, StandardCharsets.UTF_8).split("\n");
+        if (lines.length < 2 || (skipOwn && lines[0].equals(serverId))) {
+            return;
+        }
+
+        UUID playerId = UUID.fromString(lines[1]);
+        Map<String, Long> buckets = new HashMap<>();
+        for (int i = 2; i < lines.length; i++) {
+            int separator = lines[i].lastIndexOf('\t');
+            if (separator >= 0) {
+                buckets.put(lines[i].substring(0, separator), Long.parseLong(lines[i].substring(separator + 1)));
+            }
+        }
+
+        rateLimiter.merge(playerId, buckets);
+    }
+
+    private static String key(UUID playerId) {
+        return "cooldown:" + playerId;
+    }
+}
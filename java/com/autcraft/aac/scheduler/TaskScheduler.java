@@ -0,0 +1,128 @@
+package com.autcraft.aac.scheduler;
+
+import com.autcraft.aac.AAC;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Entity;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where AAC runs its tasks, so the same code works on Paper and on Folia's region threads.
+ *
+ * Anything touching a player, such as opening an inventory or giving an item, runs on the thread that owns that player:
+ * the main thread on Paper, the player's region on Folia. Anything else that doesn't touch the world runs in the background.
+ * The region schedulers are only used on Folia. Everywhere else the Bukkit scheduler is used, since servers and mocks
+ * that merely declare the region schedulers, such as MockBukkit, don't necessarily implement them.
+ */
+public class TaskScheduler {
+    private static final long MILLIS_PER_TICK = 50;
+
+    AAC plugin;
+
+    private final boolean folia;
+
+    public TaskScheduler(AAC plugin) {
+        this.plugin = plugin;
+        this.folia = isFolia();
+    }
+
+    /**
+     * Run the task on a background thread
+     *
+     * @param task
+     */
+    public void runAsync(Runnable task) {
+        if (folia) {
+            plugin.getServer().getAsyncScheduler().runNow(plugin, scheduled -> task.run());
+        } else {
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, task);
+        }
+    }
+
+    /**
+     * Background threads, for CompletableFutures
+     *
+     * @return
+     */
+    public Executor async() {
+        return this::runAsync;
+    }
+
+    /**
+     * Run the task on a background thread every period, starting after the delay
+     *
+     * @param task
+     * @param delay
+     * @param period
+     * @param unit
+     */
+    public void runAsyncTimer(Runnable task, long delay, long period, TimeUnit unit) {
+        if (folia) {
+            plugin.getServer().getAsyncScheduler().runAtFixedRate(plugin, scheduled -> task.run(), delay, period, unit);
+        } else {
+            plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, task, toTicks(delay, unit), Math.max(1, toTicks(period, unit)));
+        }
+    }
+
+    /**
+     * Run the task on the thread that owns the entity, on its next tick.
+     * The task is dropped if the entity is removed first, such as a player leaving.
+     *
+     * @param entity
+     * @param task
+     */
+    public void runFor(Entity entity, Runnable task) {
+        if (folia) {
+            entity.getScheduler().run(plugin, scheduled -> task.run(), null);
+            return;
+        }
+
+        plugin.getServer().getScheduler().runTask(plugin, () -> {
+            if (entity.isValid()) {
+                task.run();
+            }
+        });
+    }
+
+    /**
+     * Run the task for whoever sent a command: on their own thread for a player, otherwise on the global region
+     *
+     * @param sender
+     * @param task
+     */
+    public void runForSender(CommandSender sender, Runnable task) {
+        if (sender instanceof Entity entity) {
+            runFor(entity, task);
+        } else if (folia) {
+            plugin.getServer().getGlobalRegionScheduler().execute(plugin, task);
+        } else {
+            plugin.getServer().getScheduler().runTask(plugin, task);
+        }
+    }
+
+    /**
+     * Stop every repeating task, when the plugin is disabled
+     */
+    public void cancelAll() {
+        if (folia) {
+            plugin.getServer().getAsyncScheduler().cancelTasks(plugin);
+            plugin.getServer().getGlobalRegionScheduler().cancelTasks(plugin);
+        } else {
+            plugin.getServer().getScheduler().cancelTasks(plugin);
+        }
+    }
+
+    private static long toTicks(long duration, TimeUnit unit) {
+        return unit.toMillis(duration) / MILLIS_PER_TICK;
+    }
+
+    private static boolean isFolia() {
+        try {
+            Class.forName("io.papermc.paper.threadedregions.RegionizedServer");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.autcraft.aac.state;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * State kept in this server's memory, for a server that isn't sharing it with any other.
+ * Messages are delivered straight to this server's listeners.
+ */
+public class MemoryStateStore implements StateStore {
+    private final Map<String, Entry> values = new ConcurrentHashMap<>();
+    private final Map<String, List<Consumer<byte[]>>> listeners = new ConcurrentHashMap<>();
+
+    @Override
+    public byte[] get(String key) {
+        Entry entry = values.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.currentTimeMillis())) {
+            values.remove(key, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    @Override
+    public List<byte[]> getAll(List<String> keys) {
+        List<byte[]> found = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            found.add(get(key));
+        }
+        return found;
+    }
+
+    @Override
+    public void put(String key, byte[] value, long ttlMillis) {
+        values.put(key, new Entry(value, expiresAt(ttlMillis)));
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, byte[] value, long ttlMillis) {
+        Entry created = new Entry(value, expiresAt(ttlMillis));
+        long now = System.currentTimeMillis();
+        return values.compute(key, (k, existing) -> existing == null || existing.isExpired(now) ? created : existing) == created;
+    }
+
+    @Override
+    public void publish(String channel, byte[] message) {
+        for (Consumer<byte[]> listener : listeners.getOrDefault(channel, List.of())) {
+            listener.accept(message);
+        }
+    }
+
+    @Override
+    public void subscribe(String channel, Consumer<byte[]> listener) {
+        listeners.computeIfAbsent(channel, c -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    @Override
+    public boolean isShared() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        values.clear();
+        listeners.clear();
+    }
+
+    private static long expiresAt(long ttlMillis) {
+        return ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : Long.MAX_VALUE;
+    }
+
+    private record Entry(byte[] value, long expiresAt) {
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.autcraft.aac.state;
+
+import com.autcraft.aac.AAC;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * State shared through a Redis server, or anything else speaking its protocol, by every server behind the proxy.
+ *
+ * Writes and messages are queued and sent every flush interval as one pipeline: all commands are written, then all replies read.
+ * Reads first send whatever is queued on the same connection, so a server always reads its own writes.
+ * Messages arrive on a second connection, which is subscribed to every channel listened on and reconnects by itself.
+ * Every key and channel is prefixed, so several networks can share one Redis server.
+ */
+public class RedisStateStore implements StateStore {
+    private static final long RECONNECT_DELAY_MILLIS = 2000;
+
+    AAC plugin;
+
+    private final String host;
+    private final int port;
+    private final String password;
+    private final int database;
+    private final int timeoutMillis;
+    private final String prefix;
+    private final ConcurrentLinkedQueue<byte[][]> pending = new ConcurrentLinkedQueue<>();
+    private final Map<String, List<Consumer<byte[]>>> listeners = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final Thread subscriber;
+    private final Object subscriberLock = new Object();
+    private RespConnection commands;
+    private RespConnection subscription;
+    private long retryAt;
+    private volatile boolean closed;
+
+    /**
+     * @param plugin
+     * @param host
+     * @param port
+     * @param password            Null or empty for none
+     * @param database
+     * @param timeoutMillis       For connecting and for each reply
+     * @param prefix              Put in front of every key and channel, such as "aac:"
+     * @param flushIntervalMillis How often queued writes and messages are sent
+     */
+    public RedisStateStore(AAC plugin, String host, int port, String password, int database, int timeoutMillis, String prefix, long flushIntervalMillis) {
+        this.plugin = plugin;
+        this.host = host;
+        this.port = port;
+        this.password = password;
+        this.database = database;
+        this.timeoutMillis = timeoutMillis;
+        this.prefix = prefix;
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "AAC state writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, Math.max(1, flushIntervalMillis), TimeUnit.MILLISECONDS);
+
+        this.subscriber = new Thread(this::listen, "AAC state listener");
+        subscriber.setDaemon(true);
+        subscriber.start();
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        return (byte[]) request(new byte[][]{bytes("GET"), bytes(prefix + key)});
+    }
+
+    @Override
+    public List<byte[]> getAll(List<String> keys) throws IOException {
+        if (keys.isEmpty()) {
+            return List.of();
+        }
+
+        byte[][] command = new byte[keys.size() + 1][];
+        command[0] = bytes("MGET");
+        for (int i = 0; i < keys.size(); i++) {
+            command[i + 1] = bytes(prefix + keys.get(i));
+        }
+
+        List<byte[]> values = new ArrayList<>(keys.size());
+        for (Object value : (List<?>) request(command)) {
+            values.add((byte[]) value);
+        }
+        return values;
+    }
+
+    @Override
+    public void put(String key, byte[] value, long ttlMillis) {
+        if (ttlMillis > 0) {
+            pending.add(new byte[][]{bytes("SET"), bytes(prefix + key), value, bytes("PX"), bytes(Long.toString(ttlMillis))});
+        } else {
+            pending.add(new byte[][]{bytes("SET"), bytes(prefix + key), value});
+        }
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, byte[] value, long ttlMillis) throws IOException {
+        byte[][] command = ttlMillis > 0
+                ? new byte[][]{bytes("SET"), bytes(prefix + key), value, bytes("NX"), bytes("PX"), bytes(Long.toString(ttlMillis))}
+                : new byte[][]{bytes("SET"), bytes(prefix + key), value, bytes("NX")};
+
+        // OK if it was set, nil if the key already had a value
+        return request(command) != null;
+    }
+
+    @Override
+    public void publish(String channel, byte[] message) {
+        pending.add(new byte[][]{bytes("PUBLISH"), bytes(prefix + channel), message});
+    }
+
+    @Override
+    public void subscribe(String channel, Consumer<byte[]> listener) {
+        boolean first = listeners.computeIfAbsent(channel, c -> new CopyOnWriteArrayList<>()).isEmpty();
+        listeners.get(channel).add(listener);
+        if (!first) {
+            return;
+        }
+
+        // Already connected, so the listener thread won't subscribe to it until it reconnects
+        synchronized (subscriberLock) {
+            if (subscription != null) {
+                try {
+                    subscription.write("SUBSCRIBE", prefix + channel);
+                    subscription.flush();
+                } catch (IOException e) {
+                    plugin.debug("Could not subscribe to " + channel + ", will retry on reconnect. " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean isShared() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+
+        synchronized (this) {
+            disconnect();
+        }
+        synchronized (subscriberLock) {
+            closeQuietly(subscription);
+            subscription = null;
+        }
+        subscriber.interrupt();
+    }
+
+    /**
+     * Send everything queued followed by the command, and return the command's reply
+     *
+     * @param command
+     * @return
+     * @throws IOException
+     */
+    private synchronized Object request(byte[][] command) throws IOException {
+        try {
+            RespConnection connection = connect();
+            int queued = writePending(connection);
+            connection.write(command);
+            connection.flush();
+            readReplies(connection, queued);
+            return connection.read();
+        } catch (RespConnection.ErrorReply e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            disconnect();
+            throw e instanceof IOException io ? io : new IOException(e);
+        }
+    }
+
+    /**
+     * Send every queued write and message as one pipeline
+     */
+    private synchronized void flushQuietly() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        try {
+            RespConnection connection = connect();
+            int queued = writePending(connection);
+            connection.flush();
+            readReplies(connection, queued);
+        } catch (IOException | RuntimeException e) {
+            disconnect();
+            // Don't let writes pile up while the store is down
+            pending.clear();
+            plugin.debug("Could not write shared state, it will be written again with the next change. " + e.getMessage());
+        }
+    }
+
+    private int writePending(RespConnection connection) throws IOException {
+        int queued = 0;
+        for (byte[][] command = pending.poll(); command != null; command = pending.poll()) {
+            connection.write(command);
+            queued++;
+        }
+        return queued;
+    }
+
+    private void readReplies(RespConnection connection, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            try {
+                connection.read();
+            } catch (RespConnection.ErrorReply e) {
+                // An error reply for one write doesn't stop the others, but a broken connection does
+                plugin.debug("Shared state write failed. " + e.getMessage());
+            }
+        }
+    }
+
+    private RespConnection connect() throws IOException {
+        if (commands == null) {
+            // Wait a moment after a failure rather than trying again on every write
+            if (System.currentTimeMillis() < retryAt) {
+                throw new IOException("Not connected to " + host + ":" + port);
+            }
+            commands = new RespConnection(host, port, timeoutMillis, timeoutMillis, password, database);
+        }
+        return commands;
+    }
+
+    private void disconnect() {
+        if (commands == null) {
+            retryAt = System.currentTimeMillis() + RECONNECT_DELAY_MILLIS;
+        }
+        closeQuietly(commands);
+        commands = null;
+    }
+
+    /**
+     * Listener thread: subscribe to every channel, hand each message to its listeners, and reconnect whenever the connection drops
+     */
+    private void listen() {
+        while (!closed) {
+            try {
+                RespConnection connection = new RespConnection(host, port, timeoutMillis, 0, password, database);
+                synchronized (subscriberLock) {
+                    if (closed) {
+                        closeQuietly(connection);
+                        return;
+                    }
+                    subscription = connection;
+                    for (String channel : listeners.keySet()) {
+                        connection.write("SUBSCRIBE", prefix + channel);
+                    }
+                    connection.flush();
+                }
+
+                while (!closed) {
+                    dispatch(connection.read());
+                }
+            } catch (IOException | RuntimeException e) {
+                if (closed) {
+                    return;
+                }
+                plugin.debug("Lost the shared state connection, reconnecting. " + e.getMessage());
+            }
+
+            synchronized (subscriberLock) {
+                closeQuietly(subscription);
+                subscription = null;
+            }
+            try {
+                Thread.sleep(RECONNECT_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void dispatch(Object reply) {
+        // Messages are ["message", channel, payload]. Subscription confirmations are ignored.
+        if (!(reply instanceof List<?> message) || message.size() != 3 || !"message".equals(string(message.get(0)))) {
+            return;
+        }
+
+        String channel = string(message.get(1)).substring(prefix.length());
+        byte[] payload = (byte[]) message.get(2);
+        for (Consumer<byte[]> listener : listeners.getOrDefault(channel, List.of())) {
+            try {
+                listener.accept(payload);
+            } catch (RuntimeException e) {
+                plugin.toConsole("Error handling a shared state message on " + channel + ". " + e.getMessage());
+            }
+        }
+    }
+
+    private static String string(Object value) {
+        return value instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : String.valueOf(value);
+    }
+
+    private static byte[] bytes(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void closeQuietly(RespConnection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
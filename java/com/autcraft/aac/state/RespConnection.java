@@ -0,0 +1,164 @@
+package com.autcraft.aac.state;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One connection speaking the Redis protocol (RESP).
+ * Commands are only buffered until {@link #flush()}, so several can be sent in one go and their replies read back in order.
+ */
+final class RespConnection implements Closeable {
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final InputStream in;
+
+    /**
+     * Connect, then log in and pick the database if they are set
+     *
+     * @param host
+     * @param port
+     * @param connectTimeoutMillis
+     * @param timeoutMillis        For each reply, 0 to wait as long as it takes
+     * @param password             Null or empty for none
+     * @param database
+     * @throws IOException
+     */
+    RespConnection(String host, int port, int connectTimeoutMillis, int timeoutMillis, String password, int database) throws IOException {
+        this.socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            socket.setTcpNoDelay(true);
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+            this.in = new BufferedInputStream(socket.getInputStream());
+
+            int commands = 0;
+            if (password != null && !password.isEmpty()) {
+                write("AUTH", password);
+                commands++;
+            }
+            if (database != 0) {
+                write("SELECT", Integer.toString(database));
+                commands++;
+            }
+            flush();
+            for (int i = 0; i < commands; i++) {
+                read();
+            }
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    void write(String... arguments) throws IOException {
+        byte[][] bytes = new byte[arguments.length][];
+        for (int i = 0; i < arguments.length; i++) {
+            bytes[i] = arguments[i].getBytes(StandardCharsets.UTF_8);
+        }
+        write(bytes);
+    }
+
+    /**
+     * Buffer a command, as an array of bulk strings
+     *
+     * @param arguments
+     * @throws IOException
+     */
+    void write(byte[]... arguments) throws IOException {
+        out.write('*');
+        out.write(Integer.toString(arguments.length).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+        for (byte[] argument : arguments) {
+            out.write('$');
+            out.write(Integer.toString(argument.length).getBytes(StandardCharsets.US_ASCII));
+            out.write(CRLF);
+            out.write(argument);
+            out.write(CRLF);
+        }
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Read the next reply
+     *
+     * @return A String for a status, a Long for a number, a byte[] for a bulk string, a List for an array, or null for nil
+     * @throws IOException If the connection failed, or {@link ErrorReply} if the server answered with an error
+     */
+    Object read() throws IOException {
+        int type = in.read();
+        switch (type) {
+            case '+':
+                return readLine();
+            case '-':
+                throw new ErrorReply(readLine());
+            case ':':
+                return Long.parseLong(readLine());
+            case '$': {
+                int length = Integer.parseInt(readLine());
+                if (length < 0) {
+                    return null;
+                }
+                byte[] bytes = in.readNBytes(length);
+                if (bytes.length < length || in.read() != '\r' || in.read() != '\n') {
+                    throw new EOFException("Connection closed in the middle of a reply");
+                }
+                return bytes;
+            }
+            case '*': {
+                int size = Integer.parseInt(readLine());
+                if (size < 0) {
+                    return null;
+                }
+                List<Object> elements = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    elements.add(read());
+                }
+                return elements;
+            }
+            case -1:
+                throw new EOFException("Connection closed");
+            default:
+                throw new IOException("Unexpected reply type " + (char) type);
+        }
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        for (int b = in.read(); b != '\r'; b = in.read()) {
+            if (b == -1) {
+                throw new EOFException("Connection closed in the middle of a reply");
+            }
+            line.write(b);
+        }
+        if (in.read() != '\n') {
+            throw new IOException("Malformed reply");
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    /**
+     * The server refused a command. The connection itself is still fine.
+     */
+    static final class ErrorReply extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ErrorReply(String message) {
+            super("Redis error: " + message);
+        }
+    }
+}
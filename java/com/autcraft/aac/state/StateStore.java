@@ -0,0 +1,78 @@
+package com.autcraft.aac.state;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Key value store for state that servers behind the same proxy share, such as cooldowns and the compiled panel.
+ *
+ * Reads and conditional writes wait for the store, so they are meant to run off the main thread.
+ * Plain writes and messages are queued and sent in batches, so they can be made from anywhere.
+ */
+public interface StateStore {
+
+    /**
+     * @param key
+     * @return The value, or null if there is none or it expired
+     * @throws IOException If the store could not be reached
+     */
+    byte[] get(String key) throws IOException;
+
+    /**
+     * Read several keys in one round trip
+     *
+     * @param keys
+     * @return The values in the order of the keys, null for those that have none
+     * @throws IOException If the store could not be reached
+     */
+    List<byte[]> getAll(List<String> keys) throws IOException;
+
+    /**
+     * Queue a write. It is sent with the next batch.
+     *
+     * @param key
+     * @param value
+     * @param ttlMillis How long to keep it, 0 to keep it until it is replaced
+     */
+    void put(String key, byte[] value, long ttlMillis);
+
+    /**
+     * Write the value only if the key has none, such as to decide which server does something
+     *
+     * @param key
+     * @param value
+     * @param ttlMillis How long to keep it, 0 to keep it until it is replaced
+     * @return True if the value was written
+     * @throws IOException If the store could not be reached
+     */
+    boolean putIfAbsent(String key, byte[] value, long ttlMillis) throws IOException;
+
+    /**
+     * Queue a message to every server listening on the channel, this one included. It is sent with the next batch.
+     *
+     * @param channel
+     * @param message
+     */
+    void publish(String channel, byte[] message);
+
+    /**
+     * Listen for messages on the channel. The listener is called from the store's own thread.
+     *
+     * @param channel
+     * @param listener
+     */
+    void subscribe(String channel, Consumer<byte[]> listener);
+
+    /**
+     * False if the state only lives on this server, in which case there is nothing to share
+     *
+     * @return
+     */
+    boolean isShared();
+
+    /**
+     * Send anything still queued and disconnect
+     */
+    void close();
+}